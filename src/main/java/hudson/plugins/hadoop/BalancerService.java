@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Channel;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides when to run {@link BalancerTask}, so that data nodes that join later get their share of blocks.
+ *
+ * <p>
+ * The balancer is started when a data node has joined, or when the utilization of a data node deviates from
+ * the cluster average by more than {@link HadoopConfiguration#balancerThreshold}, but only within
+ * {@link HadoopConfiguration#balancerHours}. A run that's still going at the end of those hours is interrupted.
+ * {@link ClusterStatusUpdater} drives this after each snapshot.
+ */
+public final class BalancerService {
+    private volatile boolean dataNodeJoined;
+    private Future<Integer> current;
+
+    private volatile Date lastStart, lastEnd;
+    private volatile double skewAtStart = -1;
+    private volatile String lastResult;
+
+    /**
+     * Called when a data node has been started on a slave.
+     */
+    /*package*/ void onDataNodeJoined() {
+        dataNodeJoined = true;
+    }
+
+    /*package*/ synchronized void check(PluginImpl p, ClusterStatus status) throws IOException {
+        HadoopConfiguration config = p.getConfiguration();
+        boolean inWindow = config.isBalancerHour(Calendar.getInstance());
+
+        if(current!=null) {
+            if(current.isDone()) {
+                collect();
+            } else if(!inWindow || !config.autoBalance) {
+                LOGGER.info("Interrupting the HDFS balancer, as it's outside the balancer hours");
+                current.cancel(true);
+                lastResult = "interrupted at the end of the balancer hours";
+                lastEnd = new Date();
+                current = null;
+            }
+            return;
+        }
+
+        Channel ch = p.channel;
+        if(!config.autoBalance || config.isExternal() || !inWindow || ch==null)
+            return;
+        if(status.liveDataNodes<2 || status.safeMode)
+            return;
+        double skew = status.getUtilizationSkew();
+        if(!dataNodeJoined && skew<=config.balancerThreshold)
+            return;
+
+        LOGGER.info("Starting the HDFS balancer. Utilization skew is "+skew+"%");
+        dataNodeJoined = false;
+        skewAtStart = skew;
+        lastStart = new Date();
+        lastEnd = null;
+        lastResult = null;
+        current = ch.callAsync(new BalancerTask(p.getHdfsUrl(),config.balancerThreshold));
+    }
+
+    private void collect() {
+        lastEnd = new Date();
+        try {
+            lastResult = "exited with code "+current.get();
+        } catch (InterruptedException e) {
+            lastResult = "interrupted";
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.WARNING, "HDFS balancer failed",e);
+            lastResult = "failed: "+e.getCause();
+        }
+        current = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return current!=null && !current.isDone();
+    }
+
+    public Date getLastStart() {
+        return lastStart;
+    }
+
+    /**
+     * When the last run ended, or null if it's still running.
+     */
+    public Date getLastEnd() {
+        return lastEnd;
+    }
+
+    /**
+     * Utilization skew in percentage points when the last run started.
+     * Compare with {@link ClusterStatus#getUtilizationSkew()} to see the progress.
+     */
+    public double getSkewAtStart() {
+        return skewAtStart;
+    }
+
+    public String getLastResult() {
+        return lastResult;
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(BalancerService.class.getName());
+}
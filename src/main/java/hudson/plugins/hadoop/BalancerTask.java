@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Callable;
+import hudson.util.IOException2;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.balancer.Balancer;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+
+/**
+ * Runs the HDFS {@link Balancer} in the master Hadoop VM until the cluster is balanced.
+ *
+ * <p>
+ * How fast blocks move is capped by {@code dfs.balance.bandwidthPerSec} on each data node,
+ * which {@link DataNodeStartTask} sets.
+ *
+ * @see BalancerService
+ */
+class BalancerTask implements Callable<Integer,IOException> {
+    private final String hdfsUrl;
+    private final int threshold;
+
+    BalancerTask(String hdfsUrl, int threshold) {
+        this.hdfsUrl = hdfsUrl;
+        this.threshold = threshold;
+    }
+
+    /**
+     * @return
+     *      the exit code of the balancer.
+     */
+    public Integer call() throws IOException {
+        System.out.println("Starting balancer");
+
+        Configuration conf = new Configuration();
+        conf.set("fs.default.name",hdfsUrl);
+        try {
+            // Balancer is meant to be run from its main method, which calls System.exit()
+            Constructor<Balancer> c = Balancer.class.getDeclaredConstructor();
+            c.setAccessible(true);
+            Tool balancer = c.newInstance();
+            return ToolRunner.run(conf, balancer, new String[]{"-threshold",String.valueOf(threshold)});
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException2("Failed to run the balancer",e);
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
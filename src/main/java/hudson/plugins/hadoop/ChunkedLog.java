@@ -0,0 +1,289 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Text file stored in HDFS as a series of independently compressed chunks of lines,
+ * plus an index that allows any line to be reached without decompressing what's before it.
+ *
+ * <p>
+ * The data file is a concatenation of gzip members. Each holds {@link #CHUNK_LINES} lines, or {@link #CHUNK_BYTES}
+ * bytes if those lines are longer than that, in which case a chunk can end in the middle of a line.
+ * The index file consists of the format version and the total number of lines, followed by the offset of each chunk
+ * in the data file and the number of newlines before it. Reading line N therefore takes a binary search in the index,
+ * one seek in the data, and decompressing a chunk or two.
+ */
+final class ChunkedLog {
+    private final FileSystem fs;
+    private final Path data, index;
+
+    ChunkedLog(FileSystem fs, Path dir) {
+        this.fs = fs;
+        this.data = new Path(dir,"data");
+        this.index = new Path(dir,"index");
+    }
+
+    boolean exists() throws IOException {
+        return fs.exists(index);
+    }
+
+    /**
+     * Stores the given text, replacing the current contents.
+     */
+    void write(InputStream in) throws IOException {
+        List<long[]> chunks = new ArrayList<long[]>();
+        long lines = 0;
+
+        FSDataOutputStream out = fs.create(data,true,BUFFER_SIZE);
+        try {
+            GZIPOutputStream chunk = null;
+            // newlines before the current chunk, and the newlines and bytes in it so far
+            long firstLine = 0;
+            int chunkLines = 0, chunkBytes = 0;
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len, last = '\n';
+            while((len=in.read(buf))>=0) {
+                if(len==0)  continue;
+                // buf[start..] belongs to the current chunk
+                int start = 0;
+                for (int i=0; i<len; i++) {
+                    chunkBytes++;
+                    if(buf[i]=='\n') {
+                        lines++;
+                        chunkLines++;
+                    }
+                    if(chunkLines<CHUNK_LINES && chunkBytes<CHUNK_BYTES)
+                        continue;
+                    if(chunk==null)
+                        chunk = newChunk(out,chunks,firstLine);
+                    chunk.write(buf,start,i+1-start);
+                    chunk.finish();
+                    chunk = null;
+                    start = i+1;
+                    firstLine = lines;
+                    chunkLines = chunkBytes = 0;
+                }
+                if(start<len) {
+                    if(chunk==null)
+                        chunk = newChunk(out,chunks,firstLine);
+                    chunk.write(buf,start,len-start);
+                }
+                last = buf[len-1];
+            }
+            if(chunk!=null)
+                chunk.finish();
+            if(last!='\n')
+                lines++;    // the last line without the terminating newline
+        } finally {
+            out.close();
+        }
+
+        // write the index last, so that its presence marks a complete log
+        FSDataOutputStream idx = fs.create(index,true);
+        try {
+            idx.writeInt(VERSION);
+            idx.writeLong(lines);
+            for (long[] c : chunks) {
+                idx.writeLong(c[0]);
+                idx.writeLong(c[1]);
+            }
+        } finally {
+            idx.close();
+        }
+    }
+
+    private GZIPOutputStream newChunk(FSDataOutputStream out, List<long[]> chunks, long firstLine) throws IOException {
+        chunks.add(new long[]{out.getPos(),firstLine});
+        return new GZIPOutputStream(new NoCloseOutputStream(out),BUFFER_SIZE);
+    }
+
+    /**
+     * Total number of lines.
+     */
+    long getLineCount() throws IOException {
+        FSDataInputStream idx = fs.open(index);
+        try {
+            readHeader(idx);
+            return idx.readLong();
+        } finally {
+            idx.close();
+        }
+    }
+
+    /**
+     * Writes up to {@code count} lines starting at the given line (0-origin).
+     */
+    void writeLines(long start, long count, OutputStream out) throws IOException {
+        if(start<0 || count<=0)     return;
+
+        long dataLen = fs.getFileStatus(data).getLen();
+        int chunks = (int)((fs.getFileStatus(index).getLen()-HEADER_SIZE)/ENTRY_SIZE);
+        FSDataInputStream idx = fs.open(index);
+        try {
+            readHeader(idx);
+            long lines = idx.readLong();
+            if(start>=lines)
+                return;     // past the end
+
+            // the start of the line is in the last chunk that has fewer newlines before it, or in the first chunk
+            int lo=0, hi=chunks-1;
+            while(lo<hi) {
+                int mid = (lo+hi+1)/2;
+                idx.seek(HEADER_SIZE+(long)ENTRY_SIZE*mid+8);
+                if(idx.readLong()<start)    lo = mid;
+                else                        hi = mid-1;
+            }
+            idx.seek(HEADER_SIZE+(long)ENTRY_SIZE*lo);
+            long offset = idx.readLong();
+            long skip = start-idx.readLong();
+
+            FSDataInputStream in = fs.open(data,BUFFER_SIZE);
+            try {
+                in.seek(offset);
+                byte[] buf = new byte[BUFFER_SIZE];
+                for (int c=lo; c<chunks && count>0; c++) {
+                    long end = c+1<chunks ? idx.readLong() : dataLen;
+                    if(c+1<chunks)  idx.readLong();     // newlines before the next chunk
+                    // decompress each chunk separately, as GZIPInputStream isn't reliable in crossing member boundaries
+                    InputStream z = new GZIPInputStream(new ChunkInputStream(in,end-offset),BUFFER_SIZE);
+                    offset = end;
+                    int n;
+                    while(count>0 && (n=z.read(buf))>=0) {
+                        int i=0;
+                        while(skip>0 && i<n)
+                            if(buf[i++]=='\n')
+                                skip--;
+                        int from = i;
+                        while(count>0 && i<n)
+                            if(buf[i++]=='\n')
+                                count--;
+                        out.write(buf,from,i-from);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } finally {
+            idx.close();
+        }
+    }
+
+    void delete() throws IOException {
+        fs.delete(index,false);
+        fs.delete(data,false);
+    }
+
+    private void readHeader(FSDataInputStream idx) throws IOException {
+        int v = idx.readInt();
+        if(v!=VERSION)
+            throw new IOException("Unsupported log index version "+v+" in "+index);
+    }
+
+    /**
+     * Reads one chunk out of the data file, so that neither the chunk has to fit in memory
+     * nor {@link GZIPInputStream} can read into the next one.
+     */
+    private static final class ChunkInputStream extends FilterInputStream {
+        private long remaining;
+
+        ChunkInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining<=0)    return -1;
+            int b = in.read();
+            if(b>=0)    remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining<=0)    return -1;
+            int n = in.read(b,off,(int)Math.min(len,remaining));
+            if(n>0)     remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(),remaining);
+        }
+
+        @Override
+        public void close() {
+            // the data file is closed by the caller
+        }
+    }
+
+    /**
+     * Lets us finish a gzip member without closing the underlying data file.
+     */
+    private static final class NoCloseOutputStream extends FilterOutputStream {
+        NoCloseOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b,off,len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4+8;
+    private static final int ENTRY_SIZE = 8+8;
+    private static final int BUFFER_SIZE = 64*1024;
+    /**
+     * Number of lines per compressed chunk.
+     */
+    public static int CHUNK_LINES = Integer.getInteger(ChunkedLog.class.getName()+".chunkLines",10000);
+    /**
+     * Maximum number of uncompressed bytes per chunk, for logs with very long lines.
+     */
+    public static int CHUNK_BYTES = Integer.getInteger(ChunkedLog.class.getName()+".chunkBytes",1024*1024);
+}
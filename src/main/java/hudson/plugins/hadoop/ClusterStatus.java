@@ -0,0 +1,225 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.FSConstants.DatanodeReportType;
+import org.apache.hadoop.hdfs.protocol.FSConstants.SafeModeAction;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.net.NetUtils;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Snapshot of the health of the Hadoop cluster, as served by {@code /hadoop/status} and {@code /hadoop/metrics}.
+ *
+ * <p>
+ * Taking a snapshot costs the name node a couple of data node reports, so it's only done by
+ * {@link ClusterStatusUpdater} on a fixed schedule, and any number of monitoring systems
+ * can poll the result without adding to that.
+ * Values that couldn't be obtained are -1, and are left out of what's served.
+ */
+public final class ClusterStatus {
+    /**
+     * When this snapshot was taken.
+     */
+    public final long timestamp = System.currentTimeMillis();
+
+    public int liveDataNodes = -1, deadDataNodes = -1;
+    public long capacity = -1, used = -1, remaining = -1;
+    public long underReplicatedBlocks = -1, corruptBlocks = -1, missingBlocks = -1;
+    public boolean safeMode;
+    /**
+     * Lowest and highest utilization of a live data node in percent.
+     */
+    public double minUtilization = -1, maxUtilization = -1;
+
+    public int taskTrackers = -1;
+    public int mapSlots = -1, reduceSlots = -1;
+    public int runningMaps = -1, runningReduces = -1;
+
+    /**
+     * Talks to the name node and the job tracker to take a new snapshot.
+     */
+    /*package*/ static ClusterStatus take(PluginImpl p) throws IOException {
+        ClusterStatus s = new ClusterStatus();
+
+        DFSClient dfs = p.createDFSClient();
+        try {
+            DatanodeInfo[] live = dfs.datanodeReport(DatanodeReportType.LIVE);
+            s.liveDataNodes = live.length;
+            for (DatanodeInfo d : live) {
+                if(d.getCapacity()<=0)  continue;
+                double u = d.getDfsUsed()*100.0/d.getCapacity();
+                s.minUtilization = s.minUtilization<0 ? u : Math.min(s.minUtilization,u);
+                s.maxUtilization = Math.max(s.maxUtilization,u);
+            }
+            s.deadDataNodes = dfs.datanodeReport(DatanodeReportType.DEAD).length;
+            s.safeMode = dfs.setSafeMode(SafeModeAction.SAFEMODE_GET);
+            // see ClientProtocol.getStats() for the meaning of each element
+            long[] stats = dfs.namenode.getStats();
+            s.capacity = stats[0];
+            s.used = stats[1];
+            s.remaining = stats[2];
+            if(stats.length>5) {
+                s.underReplicatedBlocks = stats[3];
+                s.corruptBlocks = stats[4];
+                s.missingBlocks = stats[5];
+            }
+        } finally {
+            dfs.close();
+        }
+
+        String jobTracker = p.getJobTrackerAddress();
+        if(jobTracker!=null) {
+            try {
+                JobClient jc = new JobClient(NetUtils.createSocketAddr(jobTracker),new JobConf());
+                try {
+                    org.apache.hadoop.mapred.ClusterStatus cs = jc.getClusterStatus();
+                    s.taskTrackers = cs.getTaskTrackers();
+                    s.mapSlots = cs.getMaxMapTasks();
+                    s.reduceSlots = cs.getMaxReduceTasks();
+                    s.runningMaps = cs.getMapTasks();
+                    s.runningReduces = cs.getReduceTasks();
+                } finally {
+                    jc.close();
+                }
+            } catch (IOException e) {
+                // the job tracker might still be coming up. HDFS numbers are still useful
+                LOGGER.log(Level.FINE, "Failed to get the status of the job tracker",e);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * How far the most or the least utilized data node is from the cluster average, in percentage points.
+     * This is what the balancer threshold is compared against.
+     */
+    public double getUtilizationSkew() {
+        if(minUtilization<0 || capacity<=0)
+            return -1;
+        double avg = used*100.0/capacity;
+        return Math.max(maxUtilization-avg, avg-minUtilization);
+    }
+
+    /**
+     * Values that couldn't be obtained are sent as null.
+     */
+    public JSONObject toJSON() {
+        JSONObject hdfs = new JSONObject();
+        hdfs.put("liveDataNodes",json(liveDataNodes));
+        hdfs.put("deadDataNodes",json(deadDataNodes));
+        hdfs.put("capacity",json(capacity));
+        hdfs.put("used",json(used));
+        hdfs.put("remaining",json(remaining));
+        hdfs.put("safeMode",safeMode);
+        hdfs.put("minUtilization",json(minUtilization));
+        hdfs.put("maxUtilization",json(maxUtilization));
+        hdfs.put("underReplicatedBlocks",json(underReplicatedBlocks));
+        hdfs.put("corruptBlocks",json(corruptBlocks));
+        hdfs.put("missingBlocks",json(missingBlocks));
+
+        JSONObject mapred = new JSONObject();
+        mapred.put("taskTrackers",json(taskTrackers));
+        mapred.put("mapSlots",json(mapSlots));
+        mapred.put("reduceSlots",json(reduceSlots));
+        mapred.put("runningMaps",json(runningMaps));
+        mapred.put("runningReduces",json(runningReduces));
+
+        JSONObject o = new JSONObject();
+        o.put("timestamp",timestamp);
+        o.put("hdfs",hdfs);
+        o.put("mapred",mapred);
+        return o;
+    }
+
+    private static Object json(long value) {
+        return value<0 ? JSONNull.getInstance() : (Object)value;
+    }
+
+    private static Object json(double value) {
+        return value<0 ? JSONNull.getInstance() : (Object)value;
+    }
+
+    /**
+     * Writes the snapshot in the Prometheus text exposition format.
+     * Values that couldn't be obtained are left out, so that they show up as absent rather than as -1.
+     */
+    public void writeMetrics(PrintWriter w) {
+        gauge(w,"hadoop_status_timestamp_seconds","When this snapshot was taken");
+        sample(w,"hadoop_status_timestamp_seconds",null,timestamp/1000);
+        gauge(w,"hadoop_datanodes","Number of data nodes");
+        sample(w,"hadoop_datanodes","state=\"live\"",liveDataNodes);
+        sample(w,"hadoop_datanodes","state=\"dead\"",deadDataNodes);
+        gauge(w,"hadoop_hdfs_capacity_bytes","Configured capacity of HDFS");
+        sample(w,"hadoop_hdfs_capacity_bytes",null,capacity);
+        gauge(w,"hadoop_hdfs_used_bytes","Space used by HDFS");
+        sample(w,"hadoop_hdfs_used_bytes",null,used);
+        gauge(w,"hadoop_hdfs_remaining_bytes","Space left in HDFS");
+        sample(w,"hadoop_hdfs_remaining_bytes",null,remaining);
+        gauge(w,"hadoop_hdfs_safe_mode","1 if the name node is in the safe mode");
+        sample(w,"hadoop_hdfs_safe_mode",null,safeMode?1:0);
+        gauge(w,"hadoop_datanode_utilization_percent","Lowest and highest utilization of a live data node");
+        sample(w,"hadoop_datanode_utilization_percent","stat=\"min\"",minUtilization);
+        sample(w,"hadoop_datanode_utilization_percent","stat=\"max\"",maxUtilization);
+        gauge(w,"hadoop_hdfs_blocks","Number of blocks in trouble");
+        sample(w,"hadoop_hdfs_blocks","state=\"under_replicated\"",underReplicatedBlocks);
+        sample(w,"hadoop_hdfs_blocks","state=\"corrupt\"",corruptBlocks);
+        sample(w,"hadoop_hdfs_blocks","state=\"missing\"",missingBlocks);
+        gauge(w,"hadoop_tasktrackers","Number of task trackers");
+        sample(w,"hadoop_tasktrackers",null,taskTrackers);
+        gauge(w,"hadoop_task_slots","Task slots");
+        sample(w,"hadoop_task_slots","type=\"map\"",mapSlots);
+        sample(w,"hadoop_task_slots","type=\"reduce\"",reduceSlots);
+        gauge(w,"hadoop_running_tasks","Running tasks");
+        sample(w,"hadoop_running_tasks","type=\"map\"",runningMaps);
+        sample(w,"hadoop_running_tasks","type=\"reduce\"",runningReduces);
+    }
+
+    private static void gauge(PrintWriter w, String name, String help) {
+        w.println("# HELP "+name+" "+help);
+        w.println("# TYPE "+name+" gauge");
+    }
+
+    private static void sample(PrintWriter w, String name, String labels, long value) {
+        if(value>=0)
+            w.println(name+(labels!=null ? "{"+labels+"}" : "")+" "+value);
+    }
+
+    private static void sample(PrintWriter w, String name, String labels, double value) {
+        if(value>=0)
+            w.println(name+(labels!=null ? "{"+labels+"}" : "")+" "+value);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(ClusterStatus.class.getName());
+}
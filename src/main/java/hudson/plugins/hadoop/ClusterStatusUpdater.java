@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes {@link PluginImpl#getClusterStatus()} on a fixed schedule, and lets {@link BalancerService} act on it.
+ *
+ * <p>
+ * This runs on its own thread, so that a slow name node doesn't hold up the timer thread that other periodic work shares.
+ */
+@Extension
+public class ClusterStatusUpdater extends AsyncPeriodicWork {
+    public ClusterStatusUpdater() {
+        super("Hadoop cluster status update");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        PluginImpl p = PluginImpl.get();
+        if(!p.isStarted())
+            return;     // don't let monitoring start Hadoop in the lazy mode
+        try {
+            p.clusterStatus = ClusterStatus.take(p);
+            p.balancer.check(p,p.clusterStatus);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to obtain the status of Hadoop",e);
+        }
+    }
+
+    public static long RECURRENCE_PERIOD = Long.getLong(ClusterStatusUpdater.class.getName()+".recurrencePeriod",30*1000);
+
+    private static final Logger LOGGER = Logger.getLogger(ClusterStatusUpdater.class.getName());
+}
@@ -33,7 +33,8 @@ import java.io.IOException;
 import java.util.logging.Logger;
 
 /**
- * When a new computer becomes online, starts a Hadoop data node and task tracker.
+ * When a new computer becomes online, starts a Hadoop data node and task tracker,
+ * or just the task tracker, depending on its {@link NodeRole}.
  *
  * <p>
  * This will be done on a separate JVM to allow administrators to control the JVM parameters better.
@@ -45,19 +46,20 @@ import java.util.logging.Logger;
 public class ComputerListenerImpl extends ComputerListener {
     @Override
     public void onOnline(Computer c, TaskListener listener) {
+        long online = System.currentTimeMillis();
         try {
             if(c==Hudson.getInstance().toComputer())
                 return;   // this happens before the master is started.
 
             PluginImpl p = PluginImpl.get();
-            String hdfsUrl = p.getHdfsUrl();
-            if(hdfsUrl !=null) {
-                String address = c.getHostName();
-                if(address==null)
-                    listener.getLogger().println("Unable to determine the hostname/IP address of this system. Skipping Hadoop deployment");
-                else
-                    c.getChannel().call(new SlaveStartTask(c, listener, hdfsUrl, address));
-            }
+            HadoopConfiguration config = p.getConfiguration();
+            if(config.isExternal() && !config.provisionSlaves)
+                return;
+
+            if(!p.isStarted())
+                return;   // lazy mode. slaves get provisioned when the master starts Hadoop.
+
+            p.provision(c, listener, online);
         } catch (IOException e) {
             e.printStackTrace(listener.error("Failed to start Hadoop"));
         } catch (InterruptedException e) {
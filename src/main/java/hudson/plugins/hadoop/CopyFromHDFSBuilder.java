@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+
+/**
+ * Copies a file or a directory from HDFS into the workspace.
+ * {@linkplain PackFile Pack files} are extracted.
+ *
+ * @see HDFSCopier#download(String, String, FilePath, FilePath, TaskListener)
+ */
+public class CopyFromHDFSBuilder extends HDFSBuilder {
+    /**
+     * HDFS path to copy from.
+     */
+    public final String source;
+    /**
+     * Workspace-relative path to copy to.
+     */
+    public final String target;
+
+    @DataBoundConstructor
+    public CopyFromHDFSBuilder(String source, String target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    @Override
+    protected boolean needsNodeRoot() {
+        return true;
+    }
+
+    @Override
+    protected boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException {
+        EnvVars env = build.getEnvironment(listener);
+        FilePath dest = build.getWorkspace().child(env.expand(target));
+        String src = env.expand(source);
+        if(src.endsWith(PackFile.EXTENSION))
+            PackFile.unpack(hdfsUrl, src, dest, root, listener);
+        else
+            HDFSCopier.download(hdfsUrl, src, dest, root, listener);
+        return true;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Copy files from HDFS";
+        }
+    }
+}
@@ -30,11 +30,17 @@ import java.io.File;
 import java.io.IOException;
 
 /**
- * Starts a {@link DataNode}.
+ * Starts a {@link DataNode}, unless it's already running in this JVM.
  */
 class DataNodeStartTask extends SlaveTask {
-    DataNodeStartTask(String hdfsUrl, String rootPath, String address) {
+    /**
+     * Bytes per second this data node spends on moving blocks for the balancer.
+     */
+    private final long balanceBandwidth;
+
+    DataNodeStartTask(String hdfsUrl, String rootPath, String address, long balanceBandwidth) {
         super(hdfsUrl, rootPath, address);
+        this.balanceBandwidth = balanceBandwidth;
     }
 
     public Void call() throws IOException {
@@ -42,21 +48,43 @@ class DataNodeStartTask extends SlaveTask {
 
         Configuration conf = new Configuration();
         conf.set("fs.default.name",hdfsUrl);
-        conf.set("dfs.data.dir",new File(new File(rootPath),"hadoop/datanode").getAbsolutePath());
+        File dataDir = getDataDir(new File(rootPath));
+        conf.set("dfs.data.dir",dataDir.getAbsolutePath());
         conf.set("dfs.datanode.address", "0.0.0.0:0");
         conf.set("dfs.datanode.http.address", "0.0.0.0:0");
         conf.set("dfs.datanode.ipc.address", "0.0.0.0:0");
         conf.set("slave.host.name", slaveHostName);
+        conf.setLong("dfs.balance.bandwidthPerSec", balanceBandwidth);
 
         // TODO: make this configurable
         // make room for builds
         conf.setLong("dfs.datanode.du.reserved",10L*1024*1024*1024);
 
-        DataNode dn = DataNode.instantiateDataNode(new String[0],conf);
-        DataNode.runDatanodeDaemon(dn);
+        IOProbe.measure(dataDir).tuneDataNode(conf);
+
+        start(conf);
 
         return null;
     }
 
+    /**
+     * Data node running in this JVM, if any.
+     */
+    private static DataNode dataNode;
+
+    private static synchronized void start(Configuration conf) throws IOException {
+        if(dataNode!=null)
+            return;     // already running
+        dataNode = DataNode.instantiateDataNode(new String[0],conf);
+        DataNode.runDatanodeDaemon(dataNode);
+    }
+
+    /**
+     * Where the data node started on the given slave/master root stores its blocks.
+     */
+    static File getDataDir(File rootDir) {
+        return new File(rootDir,"hadoop/datanode");
+    }
+
     private static final long serialVersionUID = 1L;
 }
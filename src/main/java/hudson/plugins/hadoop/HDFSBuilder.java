@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.hadoop;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.Node;
+import hudson.tasks.Builder;
+
+import java.io.IOException;
+
+/**
+ * {@link Builder} that uses HDFS.
+ *
+ * <p>
+ * Starts Hadoop if it isn't running yet, and does the checks all such build steps need
+ * before handing over to {@link #perform(AbstractBuild, Launcher, BuildListener, String, FilePath)}.
+ */
+public abstract class HDFSBuilder extends Builder {
+    @Override
+    public final boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        PluginImpl p = PluginImpl.get();
+        p.ensureStarted();
+        String hdfsUrl = p.getHdfsUrl();
+        if(hdfsUrl==null) {
+            listener.error("Hadoop isn't running yet, because Jenkins doesn't know its root URL");
+            return false;
+        }
+
+        AbstractBuild<?,?> owner = getQuotaOwner(build);
+        if(owner!=null && !HDFSQuotaProperty.check(owner, listener))
+            return false;
+
+        FilePath root = null;
+        if(needsNodeRoot()) {
+            Node node = build.getBuiltOn();
+            root = node!=null ? node.getRootPath() : null;
+            if(root==null) {
+                listener.error("Unable to determine the root directory of the node this build is running on");
+                return false;
+            }
+        }
+
+        return perform(build, launcher, listener, hdfsUrl, root);
+    }
+
+    /**
+     * Does the actual work once Hadoop is known to be usable.
+     *
+     * @param root
+     *      The root directory of the node the build is running on, if {@link #needsNodeRoot()}. Otherwise null.
+     */
+    protected abstract boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException;
+
+    /**
+     * The build whose {@link HDFSQuotaProperty} needs to allow this step, or null if this step doesn't write to HDFS.
+     */
+    protected AbstractBuild<?,?> getQuotaOwner(AbstractBuild<?,?> build) {
+        return null;
+    }
+
+    /**
+     * True if this step needs the root directory of the node, to run Hadoop there or to read local block replicas.
+     */
+    protected boolean needsNodeRoot() {
+        return false;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.model.Action;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Shows the console output of a build that was moved into HDFS by {@link HDFSConsoleLogProperty}.
+ */
+public class HDFSConsoleLogAction implements Action {
+    /**
+     * HDFS directory of the {@link ChunkedLog}.
+     */
+    private final String path;
+
+    public HDFSConsoleLogAction(String path) {
+        this.path = path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getIconFileName() {
+        return "terminal.gif";
+    }
+
+    public String getDisplayName() {
+        return "Console Output (HDFS)";
+    }
+
+    public String getUrlName() {
+        return "hdfsConsole";
+    }
+
+    public long getLineCount() throws IOException {
+        FileSystem fs = PluginImpl.get().createFileSystem();
+        try {
+            return new ChunkedLog(fs,new Path(path)).getLineCount();
+        } finally {
+            fs.close();
+        }
+    }
+
+    /**
+     * Last {@link #TAIL_LINES} lines of the log.
+     */
+    public String getTail() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        FileSystem fs = PluginImpl.get().createFileSystem();
+        try {
+            ChunkedLog log = new ChunkedLog(fs,new Path(path));
+            log.writeLines(Math.max(0,log.getLineCount()-TAIL_LINES),TAIL_LINES,buf);
+        } finally {
+            fs.close();
+        }
+        return buf.toString("UTF-8");
+    }
+
+    /**
+     * Sends the given range of lines as plain text.
+     *
+     * @param start
+     *      1-origin line number of the first line to send.
+     */
+    public void doLines(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        long start = parse(req.getParameter("start"),1);
+        long count = parse(req.getParameter("count"),TAIL_LINES);
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        OutputStream out = rsp.getOutputStream();
+        FileSystem fs = PluginImpl.get().createFileSystem();
+        try {
+            new ChunkedLog(fs,new Path(path)).writeLines(start-1,count,out);
+        } finally {
+            fs.close();
+        }
+        out.close();
+    }
+
+    private static long parse(String s, long defaultValue) {
+        if(s==null)     return defaultValue;
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public static final int TAIL_LINES = 1000;
+}
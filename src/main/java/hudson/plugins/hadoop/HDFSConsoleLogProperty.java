@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Moves the console output of completed builds into HDFS.
+ *
+ * @see ChunkedLog
+ * @see RunListenerImpl
+ */
+public class HDFSConsoleLogProperty extends JobProperty<AbstractProject<?,?>> {
+    /**
+     * If true, the console output is left in JENKINS_HOME as well.
+     */
+    public final boolean keepLocalCopy;
+
+    @DataBoundConstructor
+    public HDFSConsoleLogProperty(boolean keepLocalCopy) {
+        this.keepLocalCopy = keepLocalCopy;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends JobPropertyDescriptor {
+        @Override
+        public boolean isApplicable(Class<? extends Job> jobType) {
+            return AbstractProject.class.isAssignableFrom(jobType);
+        }
+
+        @Override
+        public HDFSConsoleLogProperty newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            if(!formData.has("hdfsConsoleLog"))
+                return null;
+            return req.bindJSON(HDFSConsoleLogProperty.class, formData.getJSONObject("hdfsConsoleLog"));
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Store console output in HDFS";
+        }
+    }
+}
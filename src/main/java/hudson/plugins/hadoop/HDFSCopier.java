@@ -0,0 +1,392 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.IOException2;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copies directory trees between {@link FilePath}s and HDFS.
+ *
+ * <p>
+ * The copy runs on the node that has the {@link FilePath}, so when that node also runs a data node,
+ * HDFS places the first replica of the uploaded blocks there, and downloads read local replicas
+ * through {@link LocalBlockReader}.
+ *
+ * <p>
+ * Files are copied in parallel by a bounded thread pool. To keep the number of name node round trips
+ * down, each directory is listed once instead of checking every file, and only the leaf directories
+ * are created. Each copied file gets the modification time of its source once it's completely written,
+ * and files that already have the same length and modification time on the other side are skipped,
+ * so re-running an interrupted copy only transfers what's missing. Comparing the timestamps for equality
+ * rather than order keeps this independent of the clocks of the name node and the build node.
+ */
+public class HDFSCopier {
+    /**
+     * Copies a local file or directory into HDFS.
+     *
+     * @param dest
+     *      HDFS path that corresponds to {@code src}.
+     */
+    public static Stats upload(FilePath src, String hdfsUrl, String dest, TaskListener listener) throws IOException, InterruptedException {
+        return src.act(new UploadTask(hdfsUrl, dest, listener));
+    }
+
+    /**
+     * Copies an HDFS file or directory to a local path.
+     *
+     * @param rootPath
+     *      The root of the node that {@code dest} lives on, used to find local block replicas.
+     */
+    public static Stats download(String hdfsUrl, String src, FilePath dest, FilePath rootPath, TaskListener listener) throws IOException, InterruptedException {
+        return dest.act(new DownloadTask(hdfsUrl, src, rootPath.getRemote(), listener));
+    }
+
+    /**
+     * Outcome of a copy.
+     */
+    public static final class Stats implements Serializable {
+        private final AtomicInteger files = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong skippedBytes = new AtomicLong();
+
+        /**
+         * Number of files copied.
+         */
+        public int getFiles() {
+            return files.get();
+        }
+
+        /**
+         * Number of files skipped because they were already up to date.
+         */
+        public int getSkipped() {
+            return skipped.get();
+        }
+
+        /**
+         * Number of bytes copied.
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * Number of bytes in the files that were skipped.
+         */
+        public long getSkippedBytes() {
+            return skippedBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d files (%d bytes) copied, %d files already up to date", getFiles(), getBytes(), getSkipped());
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class UploadTask implements FileCallable<Stats> {
+        private final String hdfsUrl;
+        private final String dest;
+        private final TaskListener listener;
+
+        UploadTask(String hdfsUrl, String dest, TaskListener listener) {
+            this.hdfsUrl = hdfsUrl;
+            this.dest = dest;
+            this.listener = listener;
+        }
+
+        public Stats invoke(File src, VirtualChannel channel) throws IOException, InterruptedException {
+            final Stats stats = new Stats();
+            final FileSystem fs = PluginImpl.createFileSystem(hdfsUrl);
+            try {
+                // relative path -> file
+                Map<String,File> files = new HashMap<String,File>();
+                List<String> emptyDirs = new ArrayList<String>();
+                if(src.isDirectory())
+                    list(src,"",files,emptyDirs);
+                else
+                    files.put("",src);
+
+                // one listing per target directory tells us what's already there
+                Map<Path,Map<String,FileStatus>> existing = new HashMap<Path,Map<String,FileStatus>>();
+                TreeSet<String> dirs = new TreeSet<String>();
+                for (String rel : files.keySet()) {
+                    Path p = resolve(dest,rel);
+                    Path parent = p.getParent();
+                    if(parent!=null && !existing.containsKey(parent)) {
+                        existing.put(parent,list(fs,parent));
+                        if(existing.get(parent).isEmpty())
+                            dirs.add(parent.toUri().getPath());
+                    }
+                }
+                for (String rel : emptyDirs) {
+                    Path p = resolve(dest,rel);
+                    Path parent = p.getParent();
+                    if(parent==null)    continue;
+                    if(!existing.containsKey(parent))
+                        existing.put(parent,list(fs,parent));
+                    if(!existing.get(parent).containsKey(p.getName()))
+                        dirs.add(p.toUri().getPath());
+                }
+                for (String dir : leaves(dirs))
+                    fs.mkdirs(new Path(dir));
+
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (Map.Entry<String,File> e : files.entrySet()) {
+                    final File f = e.getValue();
+                    final Path p = resolve(dest,e.getKey());
+                    FileStatus s = p.getParent()==null ? null : existing.get(p.getParent()).get(p.getName());
+                    if(s!=null && !s.isDir() && isUpToDate(f,s)) {
+                        stats.skipped.incrementAndGet();
+                        stats.skippedBytes.addAndGet(s.getLen());
+                        continue;
+                    }
+                    tasks.add(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            FSDataOutputStream out = fs.create(p,true,BUFFER_SIZE);
+                            try {
+                                FileInputStream in = new FileInputStream(f);
+                                try {
+                                    stats.bytes.addAndGet(copy(in,out));
+                                } finally {
+                                    in.close();
+                                }
+                            } finally {
+                                out.close();
+                            }
+                            fs.setTimes(p,f.lastModified(),-1);
+                            stats.files.incrementAndGet();
+                            return null;
+                        }
+                    });
+                }
+                run(tasks);
+            } finally {
+                fs.close();
+            }
+            listener.getLogger().println("Copied "+src+" to HDFS "+dest+": "+stats);
+            return stats;
+        }
+
+        /**
+         * @param emptyDirs
+         *      Receives the relative paths of directories without any children, which wouldn't be created otherwise.
+         */
+        private void list(File dir, String prefix, Map<String,File> result, List<String> emptyDirs) {
+            File[] children = dir.listFiles();
+            if(children==null)  return;
+            if(children.length==0)
+                emptyDirs.add(prefix.endsWith("/") ? prefix.substring(0,prefix.length()-1) : prefix);
+            for (File f : children) {
+                if(f.isDirectory())
+                    list(f, prefix+f.getName()+'/', result, emptyDirs);
+                else
+                    result.put(prefix+f.getName(),f);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class DownloadTask implements FileCallable<Stats> {
+        private final String hdfsUrl;
+        private final String src;
+        private final String rootPath;
+        private final TaskListener listener;
+
+        DownloadTask(String hdfsUrl, String src, String rootPath, TaskListener listener) {
+            this.hdfsUrl = hdfsUrl;
+            this.src = src;
+            this.rootPath = rootPath;
+            this.listener = listener;
+        }
+
+        public Stats invoke(File dest, VirtualChannel channel) throws IOException, InterruptedException {
+            final Stats stats = new Stats();
+            FileSystem fs = PluginImpl.createFileSystem(hdfsUrl);
+            final LocalBlockReader reader = new LocalBlockReader(hdfsUrl, new File(rootPath));
+            try {
+                // local file -> HDFS file
+                Map<File,FileStatus> files = new HashMap<File,FileStatus>();
+                FileStatus root = fs.getFileStatus(new Path(src));
+                if(root.isDir())
+                    list(fs,root.getPath(),dest,files);
+                else
+                    files.put(dest,root);
+
+                List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+                for (Map.Entry<File,FileStatus> e : files.entrySet()) {
+                    final File f = e.getKey();
+                    final FileStatus s = e.getValue();
+                    if(f.exists() && isUpToDate(f,s)) {
+                        stats.skipped.incrementAndGet();
+                        stats.skippedBytes.addAndGet(s.getLen());
+                        continue;
+                    }
+                    f.getParentFile().mkdirs();
+                    tasks.add(new Callable<Void>() {
+                        public Void call() throws IOException {
+                            reader.copyTo(s.getPath().toUri().getPath(),f);
+                            f.setLastModified(s.getModificationTime());
+                            stats.bytes.addAndGet(s.getLen());
+                            stats.files.incrementAndGet();
+                            return null;
+                        }
+                    });
+                }
+                run(tasks);
+            } finally {
+                try {
+                    reader.close();
+                } finally {
+                    fs.close();
+                }
+            }
+            listener.getLogger().printf("Copied HDFS %s to %s: %s (%d bytes from local replicas)%n",
+                    src, dest, stats, reader.getLocalBytes());
+            return stats;
+        }
+
+        private void list(FileSystem fs, Path dir, File dest, Map<File,FileStatus> result) throws IOException {
+            FileStatus[] children = fs.listStatus(dir);
+            if(children==null)  return;
+            dest.mkdirs();
+            for (FileStatus s : children) {
+                File f = new File(dest,s.getPath().getName());
+                if(s.isDir())
+                    list(fs,s.getPath(),f,result);
+                else
+                    result.put(f,s);
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Checks if the local file is a complete copy of the HDFS file, or the other way around.
+     * Local file systems may keep the modification time in seconds, so that's all we compare.
+     */
+    private static boolean isUpToDate(File f, FileStatus s) {
+        return f.length()==s.getLen() && f.lastModified()/1000==s.getModificationTime()/1000;
+    }
+
+    private static Path resolve(String base, String rel) {
+        return rel.length()==0 ? new Path(base) : new Path(base,rel);
+    }
+
+    /**
+     * Lists a directory, or returns an empty map if it doesn't exist yet.
+     */
+    private static Map<String,FileStatus> list(FileSystem fs, Path dir) throws IOException {
+        Map<String,FileStatus> r = new HashMap<String,FileStatus>();
+        FileStatus[] children = fs.listStatus(dir);
+        if(children!=null)
+            for (FileStatus s : children)
+                r.put(s.getPath().getName(),s);
+        return r;
+    }
+
+    /**
+     * Drops directories that are ancestors of other directories in the set,
+     * since {@link FileSystem#mkdirs(Path)} creates those anyway.
+     */
+    private static List<String> leaves(TreeSet<String> dirs) {
+        List<String> r = new ArrayList<String>();
+        for (String d : dirs) {
+            String next = dirs.higher(d);
+            if(next==null || !next.startsWith(d.endsWith("/") ? d : d+'/'))
+                r.add(d);
+        }
+        return r;
+    }
+
+    /**
+     * Runs the copy tasks on a bounded thread pool, and waits for all of them to complete.
+     */
+    private static void run(List<Callable<Void>> tasks) throws IOException, InterruptedException {
+        if(tasks.isEmpty())     return;
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(THREADS,tasks.size()));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (Callable<Void> t : tasks)
+                futures.add(pool.submit(t));
+            for (Future<Void> f : futures)
+                f.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if(t instanceof IOException)
+                throw (IOException)t;
+            throw new IOException2(t);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long copy(FileInputStream in, FSDataOutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0;
+        int len;
+        while((len=in.read(buf))>=0) {
+            out.write(buf,0,len);
+            total += len;
+        }
+        return total;
+    }
+
+    private static final int BUFFER_SIZE = 1024*1024;
+
+    /**
+     * Maximum number of files copied concurrently.
+     */
+    public static int THREADS = Integer.getInteger(HDFSCopier.class.getName()+".threads",8);
+}
@@ -1,26 +1,34 @@
 package hudson.plugins.hadoop;
 
+import hudson.Util;
 import hudson.model.DirectoryBrowserSupport;
-import org.apache.hadoop.hdfs.DFSClient;
+import hudson.model.Hudson;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 
 /**
  * Renders HDFS directory like {@link DirectoryBrowserSupport}.
  *
+ * <p>
+ * {@linkplain PackFile Pack files} are shown as directories of their entries.
+ *
  * @author Kohsuke Kawaguchi
  */
 public class HDFSDirectoryBrowser implements HttpResponse {
-    private final DFSClient dfs;
-
-    public HDFSDirectoryBrowser() throws IOException {
-        PluginImpl p = PluginImpl.get();
-        this.dfs = p.createDFSClient();
-    }
 
     private String getPath(StaplerRequest req) {
         String path = req.getRestOfPath();
@@ -30,107 +38,169 @@ public class HDFSDirectoryBrowser implements HttpResponse {
     }
 
     public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
-//        String target = getPath(req);
-//        if (!dfs.exists(target)) {
-//            rsp.sendError(SC_NOT_FOUND);
-//            return;
-//        }
-//
-//        PrintWriter out = rsp.getWriter();
-//
-//        if (!dfs.isDirectory(target)) { // a file
-//            List<LocatedBlock> blocks =
-//                    dfs.namenode.getBlockLocations(target, 0, 1).getLocatedBlocks();
-//
-//            LocatedBlock firstBlock = null;
-//            DatanodeInfo[] locations = null;
-//            if (blocks.size() > 0) {
-//                firstBlock = blocks.get(0);
-//                locations = firstBlock.getLocations();
-//            }
-//            if (locations == null || locations.length == 0) {
-//                out.print("Empty file");
-//            } else {
-//                DatanodeInfo chosenNode = jspHelper.bestNode(firstBlock);
-//                String fqdn = InetAddress.getByName(chosenNode.getHost()).
-//                        getCanonicalHostName();
-//                String datanodeAddr = chosenNode.getName();
-//                int datanodePort = Integer.parseInt(
-//                        datanodeAddr.substring(
-//                                datanodeAddr.indexOf(':') + 1,
-//                                datanodeAddr.length()));
-//                String redirectLocation = "http://" + fqdn + ":" +
-//                        chosenNode.getInfoPort() +
-//                        "/browseBlock.jsp?blockId=" +
-//                        firstBlock.getBlock().getBlockId() +
-//                        "&blockSize=" + firstBlock.getBlock().getNumBytes() +
-//                        "&genstamp=" + firstBlock.getBlock().getGenerationStamp() +
-//                        "&filename=" + URLEncoder.encode(dir, "UTF-8") +
-//                        "&datanodePort=" + datanodePort +
-//                        "&namenodeInfoPort=" + namenodeInfoPort;
-//                rsp.sendRedirect(redirectLocation);
-//            }
-//            return;
-//        }
-//        // directory
-//          FileStatus[] files = dfs.listPaths(target);
-//          //generate a table and dump the info
-//          String [] headings = { "Name", "Type", "Size", "Replication",
-//                                  "Block Size", "Modification Time",
-//                                  "Permission", "Owner", "Group" };
-//          out.print("<h3>Contents of directory ");
-//          JspHelper.printPathWithLinks(dir, out, namenodeInfoPort);
-//          out.print("</h3><hr>");
-//          JspHelper.printGotoForm(out, namenodeInfoPort, dir);
-//          out.print("<hr>");
-//
-//          File f = new File(dir);
-//          String parent;
-//          if ((parent = f.getParent()) != null)
-//            out.print("<a href=\"" + req.getRequestURL() + "?dir=" + parent +
-//                      "&namenodeInfoPort=" + namenodeInfoPort +
-//                      "\">Go to parent directory</a><br>");
-//
-//          if (files == null || files.length == 0) {
-//            out.print("Empty directory");
-//          }
-//          else {
-//            jspHelper.addTableHeader(out);
-//            int row=0;
-//            jspHelper.addTableRow(out, headings, row++);
-//            String cols [] = new String[headings.length];
-//            for (int i = 0; i < files.length; i++) {
-//              //Get the location of the first block of the file
-//              if (files[i].getPath().toString().endsWith(".crc")) continue;
-//              if (!files[i].isDir()) {
-//                cols[1] = "file";
-//                cols[2] = FsShell.byteDesc(files[i].getLen());
-//                cols[3] = Short.toString(files[i].getReplication());
-//                cols[4] = FsShell.byteDesc(files[i].getBlockSize());
-//              }
-//              else {
-//                cols[1] = "dir";
-//                cols[2] = "";
-//                cols[3] = "";
-//                cols[4] = "";
-//              }
-//              String datanodeUrl = req.getRequestURL()+"?dir="+
-//                  URLEncoder.encode(files[i].getPath().toString(), "UTF-8") +
-//                  "&namenodeInfoPort=" + namenodeInfoPort;
-//              cols[0] = "<a href=\""+datanodeUrl+"\">"+files[i].getPath().getName()+"</a>";
-//              cols[5] = FsShell.dateForm.format(new Date((files[i].getModificationTime())));
-//              cols[6] = files[i].getPermission().toString();
-//              cols[7] = files[i].getOwner();
-//              cols[8] = files[i].getGroup();
-//              jspHelper.addTableRow(out, cols, row++);
-//            }
-//            jspHelper.addTableFooter(out);
-//          }
-//
-//        String namenodeHost = jspHelper.nameNodeAddr.getHostName();
-//        out.print("<br><a href=\"http://" +
-//                  InetAddress.getByName(namenodeHost).getCanonicalHostName() + ":" +
-//                  namenodeInfoPort + "/dfshealth.jsp\">Go back to DFS home</a>");
-//        dfs.close();
+        FileSystem fs = PluginImpl.get().createFileSystem();
+        try {
+            String target = getPath(req);
+            boolean dirUrl = target.endsWith("/");
+
+            // find out if the path goes into a pack file
+            String[] tokens = target.split("/");
+            StringBuilder prefix = new StringBuilder();
+            for (int i=0; i<tokens.length; i++) {
+                if(tokens[i].length()==0)   continue;
+                prefix.append('/').append(tokens[i]);
+                if(!tokens[i].endsWith(PackFile.EXTENSION))     continue;
+
+                Path p = new Path(prefix.toString());
+                if(fs.isFile(p)) {
+                    StringBuilder rest = new StringBuilder();
+                    for (int j=i+1; j<tokens.length; j++) {
+                        if(tokens[j].length()==0)   continue;
+                        if(rest.length()>0) rest.append('/');
+                        rest.append(tokens[j]);
+                    }
+                    PackFile pack = new PackFile(fs,p);
+                    try {
+                        servePack(req, rsp, pack, rest.toString(), dirUrl);
+                    } finally {
+                        pack.close();
+                    }
+                    return;
+                }
+            }
+
+            Path p = new Path(target);
+            FileStatus status;
+            try {
+                status = fs.getFileStatus(p);
+            } catch (FileNotFoundException e) {
+                rsp.sendError(SC_NOT_FOUND);
+                return;
+            }
+
+            if(!status.isDir()) {
+                FSDataInputStream in = fs.open(p);
+                try {
+                    serveFile(rsp, p.getName(), status.getLen(), in);
+                } finally {
+                    in.close();
+                }
+                return;
+            }
+
+            if(!dirUrl) {
+                // relative links in the listing require the trailing '/'
+                rsp.sendRedirect2(req.getRequestURI()+'/');
+                return;
+            }
+            Map<String,Row> rows = new TreeMap<String,Row>();
+            FileStatus[] children = fs.listStatus(p);
+            if(children!=null) {
+                for (FileStatus c : children) {
+                    String name = c.getPath().getName();
+                    if(c.isDir())
+                        rows.put(name+'/',new Row(name,true,""));
+                    else
+                    if(name.endsWith(PackFile.EXTENSION))
+                        rows.put(name+'/',new Row(name,true,c.getLen()+" (packed)"));
+                    else
+                        rows.put(name,new Row(name,false,String.valueOf(c.getLen())));
+                }
+            }
+            serveListing(req, rsp, target, rows);
+        } finally {
+            fs.close();
+        }
+    }
+
+    private void servePack(StaplerRequest req, StaplerResponse rsp, PackFile pack, String rest, boolean dirUrl) throws IOException, ServletException {
+        PackFile.Entry e = pack.getEntry(rest);
+        if(e!=null) {
+            OutputStream out = serveFile(rsp, rest, e.length, null);
+            pack.writeTo(e,out);
+            out.close();
+            return;
+        }
+
+        // list entries under the given directory
+        String dir = rest.length()==0 ? "" : rest+'/';
+        Map<String,Row> rows = new TreeMap<String,Row>();
+        for (PackFile.Entry x : pack.getEntries()) {
+            if(!x.name.startsWith(dir))     continue;
+            String name = x.name.substring(dir.length());
+            int idx = name.indexOf('/');
+            if(idx>=0)
+                rows.put(name.substring(0,idx+1),new Row(name.substring(0,idx),true,""));
+            else
+                rows.put(name,new Row(name,false,String.valueOf(x.length)));
+        }
+        if(rows.isEmpty()) {
+            rsp.sendError(SC_NOT_FOUND);
+            return;
+        }
+        if(!dirUrl) {
+            rsp.sendRedirect2(req.getRequestURI()+'/');
+            return;
+        }
+        serveListing(req, rsp, pack.getPath()+"/"+rest, rows);
+    }
+
+    /**
+     * Sends the headers of a file, and if the data is given, its contents.
+     *
+     * <p>
+     * Anything could be in HDFS, so we never let the browser render a file in our origin.
+     * Text is sent as plain text, and everything else as a download.
+     *
+     * @return
+     *      the stream to write the contents to.
+     */
+    private OutputStream serveFile(StaplerResponse rsp, String name, long length, FSDataInputStream in) throws IOException {
+        String type = Hudson.getInstance().servletContext.getMimeType(name);
+        if(type!=null && type.startsWith("text/")) {
+            rsp.setContentType("text/plain;charset=UTF-8");
+        } else {
+            rsp.setContentType("application/octet-stream");
+            rsp.setHeader("Content-Disposition","attachment; filename=\""+name.substring(name.lastIndexOf('/')+1).replace("\"","")+"\"");
+        }
+        rsp.setHeader("X-Content-Type-Options","nosniff");
+        if(length<=Integer.MAX_VALUE)
+            rsp.setContentLength((int)length);
+        OutputStream out = rsp.getOutputStream();
+        if(in!=null) {
+            Util.copyStream(in,out);
+            out.close();
+        }
+        return out;
+    }
+
+    /**
+     * Renders a directory listing with the {@code dir.jelly} view.
+     *
+     * @param rows
+     *      Children sorted by their names.
+     */
+    private void serveListing(StaplerRequest req, StaplerResponse rsp, String title, Map<String,Row> rows) throws IOException, ServletException {
+        req.setAttribute("title",title);
+        req.setAttribute("rows",rows.values());
+        req.getView(this,"dir.jelly").forward(req,rsp);
+    }
+
+    /**
+     * One child in a directory listing.
+     */
+    public static final class Row {
+        public final String name;
+        /**
+         * Relative URL of the child. Directories (and pack files) end with '/'.
+         */
+        public final String href;
+        public final String size;
+
+        Row(String name, boolean dir, String size) {
+            this.name = dir ? name+'/' : name;
+            this.href = Util.rawEncode(name)+(dir?"/":"");
+            this.size = size;
+        }
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Job;
+import hudson.model.JobProperty;
+import hudson.model.JobPropertyDescriptor;
+import hudson.model.TaskListener;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.StaplerRequest;
+
+/**
+ * Limits how much HDFS space a job can use through the build steps of this plugin.
+ *
+ * <p>
+ * Usage is taken from {@link UsageIndex}, and checked before a build step writes,
+ * so a single build can go over the limit, but the next one won't write any more.
+ */
+public class HDFSQuotaProperty extends JobProperty<AbstractProject<?,?>> {
+    /**
+     * Maximum HDFS usage in megabytes.
+     */
+    public final long megabytes;
+
+    @DataBoundConstructor
+    public HDFSQuotaProperty(long megabytes) {
+        this.megabytes = megabytes;
+    }
+
+    public long getQuotaBytes() {
+        return megabytes*1024*1024;
+    }
+
+    /**
+     * Checks if the job of the given build is allowed to write more into HDFS.
+     *
+     * @return
+     *      false if the quota is used up, after reporting that to the listener.
+     */
+    public static boolean check(AbstractBuild<?,?> build, TaskListener listener) {
+        HDFSQuotaProperty q = (HDFSQuotaProperty)build.getProject().getProperty(HDFSQuotaProperty.class);
+        UsageIndex usage = PluginImpl.get().getUsage();
+        if(q==null || usage==null)
+            return true;
+        long used = usage.getBytes(build.getProject());
+        if(used<q.getQuotaBytes())
+            return true;
+        listener.error("This job already uses "+UsageIndex.toHumanReadable(used)
+                +" of HDFS, which exceeds its quota of "+UsageIndex.toHumanReadable(q.getQuotaBytes()));
+        return false;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends JobPropertyDescriptor {
+        @Override
+        public boolean isApplicable(Class<? extends Job> jobType) {
+            return AbstractProject.class.isAssignableFrom(jobType);
+        }
+
+        @Override
+        public HDFSQuotaProperty newInstance(StaplerRequest req, JSONObject formData) throws FormException {
+            if(!formData.has("hdfsQuota"))
+                return null;
+            return req.bindJSON(HDFSQuotaProperty.class, formData.getJSONObject("hdfsQuota"));
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Limit HDFS usage";
+        }
+    }
+}
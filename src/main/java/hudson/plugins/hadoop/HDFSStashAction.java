@@ -0,0 +1,162 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.Action;
+import hudson.model.Cause.UpstreamCause;
+import hudson.model.Hudson;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the stashes that builds downstream of this build have put into HDFS,
+ * so that they are deleted along with this build by {@link RunListenerImpl}, if they haven't
+ * {@linkplain #expire expired} before that.
+ *
+ * <p>
+ * Stashes are scoped to the build that started the chain of upstream/downstream builds,
+ * so that any build in that chain, on any node, can unstash what another one stashed.
+ *
+ * @see StashToHDFSBuilder
+ * @see UnstashFromHDFSBuilder
+ */
+public class HDFSStashAction implements Action {
+    private final CopyOnWriteArrayList<String> names = new CopyOnWriteArrayList<String>();
+
+    public List<String> getNames() {
+        return names;
+    }
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "HDFS stashes";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    /**
+     * HDFS path of the given stash of the given build chain.
+     */
+    public static String getPath(AbstractBuild<?,?> root, String name) {
+        return PluginImpl.getHdfsPath(root)+"/stash/"+name+PackFile.EXTENSION;
+    }
+
+    /**
+     * Records a new stash on the root build.
+     */
+    public static void add(AbstractBuild<?,?> root, String name) throws IOException {
+        HDFSStashAction a;
+        synchronized (root) {
+            a = root.getAction(HDFSStashAction.class);
+            if(a==null)
+                root.addAction(a=new HDFSStashAction());
+        }
+        if(a.names.addIfAbsent(name))
+            root.save();
+    }
+
+    /**
+     * Deletes the stashes that haven't been written for the given time, unless the build that started the chain
+     * is still running. Downstream builds of a chain that has completed are expected to have unstashed by then.
+     *
+     * <p>
+     * Stashes are found through {@link UsageIndex}, so that this doesn't have to list HDFS.
+     *
+     * @param ttl
+     *      Milliseconds since the last write to a stash before it's deleted.
+     */
+    /*package*/ static void expire(PluginImpl p, FileSystem fs, long ttl) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String,Map<String,Integer>> j : p.getUsage().getPaths().entrySet()) {
+            AbstractProject<?,?> job = Hudson.getInstance().getItemByFullName(j.getKey(),AbstractProject.class);
+            if(job==null)   continue;   // UsageIndex.reconcile takes care of these
+            for (Map.Entry<String,Integer> e : j.getValue().entrySet()) {
+                String path = e.getKey();
+                int idx = path.indexOf("/stash/");
+                if(idx<0 || !path.endsWith(PackFile.EXTENSION))
+                    continue;
+                AbstractBuild<?,?> root = job.getBuildByNumber(e.getValue());
+                if(root==null || root.isBuilding())
+                    continue;
+                FileStatus s;
+                try {
+                    s = fs.getFileStatus(new Path(path));
+                } catch (FileNotFoundException x) {
+                    continue;   // UsageIndex.reconcile takes care of these
+                }
+                if(s==null || now-s.getModificationTime()<ttl)
+                    continue;
+
+                LOGGER.fine("Deleting the expired stash "+path);
+                fs.delete(new Path(path),false);
+                p.getUsage().remove(job,path);
+                HDFSStashAction a = root.getAction(HDFSStashAction.class);
+                String name = path.substring(idx+"/stash/".length(),path.length()-PackFile.EXTENSION.length());
+                if(a!=null && a.names.remove(name))
+                    root.save();
+            }
+        }
+    }
+
+    /**
+     * Follows the upstream causes of the given build to the build that started the chain.
+     */
+    public static AbstractBuild<?,?> getRoot(AbstractBuild<?,?> b) {
+        while(true) {
+            UpstreamCause c = (UpstreamCause)b.getCause(UpstreamCause.class);
+            if(c==null)
+                return b;
+            AbstractProject<?,?> p = Hudson.getInstance().getItemByFullName(c.getUpstreamProject(),AbstractProject.class);
+            AbstractBuild<?,?> u = p!=null ? p.getBuildByNumber(c.getUpstreamBuild()) : null;
+            if(u==null)
+                return b;   // upstream build is gone
+            b = u;
+        }
+    }
+
+    /**
+     * Checks if the given name can be used as a stash name.
+     */
+    public static boolean isValidName(String name) {
+        return name!=null && name.matches("[\\w.-]+");
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(HDFSStashAction.class.getName());
+}
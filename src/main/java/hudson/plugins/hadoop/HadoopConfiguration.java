@@ -26,10 +26,15 @@ package hudson.plugins.hadoop;
 import static hudson.Util.fixEmpty;
 import hudson.model.Hudson;
 import hudson.model.Label;
+import hudson.model.Node;
 import org.kohsuke.stapler.DataBoundConstructor;
 
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Calendar;
+
 /**
- * TODO: Configuration of Hadoop.
+ * Configuration of Hadoop.
  *
  * @author Kohsuke Kawaguchi
  */
@@ -37,11 +42,194 @@ public class HadoopConfiguration {
     /**
      * If non-null, hadoop will only start on nodes that have this label.
      */
-    public final Label label;
+    public final String label;
+
+    /**
+     * If non-null, nodes that have this label only run task trackers and no data node.
+     */
+    public final String computeOnlyLabel;
+
+    /**
+     * If non-null, the URL of an HDFS name node running outside Jenkins, like "hdfs://host:9000/".
+     * In this mode, Jenkins doesn't run the name node and the job tracker by itself.
+     * The port is always present, {@link #DEFAULT_HDFS_PORT} if the user didn't give one.
+     */
+    public final String hdfsUrl;
+
+    /**
+     * "host:port" of a job tracker running outside Jenkins. Used together with {@link #hdfsUrl}.
+     */
+    public final String jobTrackerAddress;
+
+    /**
+     * When using an external cluster, whether to start data nodes and task trackers on slaves.
+     */
+    public final boolean provisionSlaves;
+
+    /**
+     * If true, the master daemons are started when Hadoop is first used, instead of during the boot,
+     * and task trackers only run while the job tracker has work.
+     */
+    public final boolean lazyStart;
+
+    /**
+     * In the {@linkplain #lazyStart lazy mode}, minutes without any pending job before task trackers are shut down.
+     * 0 to keep them running.
+     */
+    public final int taskTrackerIdleMinutes;
+
+    /**
+     * Whether to run the HDFS balancer when data nodes join or the utilization gets uneven.
+     */
+    public final boolean autoBalance;
+
+    /**
+     * Percentage of utilization difference between a data node and the cluster average that's tolerated.
+     */
+    public final int balancerThreshold;
+
+    /**
+     * Megabytes per second that each data node may spend on moving blocks for the balancer.
+     */
+    public final int balancerBandwidth;
+
+    /**
+     * Hours of the day like "22-6" when the balancer may run, or null for any time.
+     */
+    public final String balancerHours;
+
+    /**
+     * Megabytes of HDFS that {@link ResultCache} may use for the cached results of MapReduce jobs.
+     */
+    public final long resultCacheMB;
+
+    /**
+     * On Linux, whether to lower the CPU and I/O priority of the Hadoop VMs. See {@link ResourceIsolationTask}.
+     */
+    public final boolean isolateResources;
+
+    /**
+     * cgroup v2 directory delegated to Jenkins, under which the Hadoop VMs get their own cgroups, or null to not use cgroups.
+     */
+    public final String cgroupRoot;
+
+    /**
+     * Hours after the last write that a stash is deleted, once the build that started the chain has completed.
+     * See {@link HDFSStashAction#expire}.
+     */
+    public final int stashHours;
 
     @DataBoundConstructor
-    public HadoopConfiguration(String label) {
-        label = fixEmpty(label);
-        this.label = Hudson.getInstance().getLabel(label);
+    public HadoopConfiguration(String label, String computeOnlyLabel, String hdfsUrl, String jobTrackerAddress, boolean provisionSlaves,
+                               boolean lazyStart, int taskTrackerIdleMinutes,
+                               boolean autoBalance, int balancerThreshold, int balancerBandwidth, String balancerHours,
+                               long resultCacheMB, boolean isolateResources, String cgroupRoot, int stashHours) {
+        this.label = fixEmpty(label);
+        this.computeOnlyLabel = fixEmpty(computeOnlyLabel);
+        this.hdfsUrl = normalizeHdfsUrl(hdfsUrl);
+        this.jobTrackerAddress = fixEmpty(jobTrackerAddress);
+        this.provisionSlaves = provisionSlaves;
+        this.lazyStart = lazyStart;
+        this.taskTrackerIdleMinutes = Math.max(0,taskTrackerIdleMinutes);
+        this.autoBalance = autoBalance;
+        this.balancerThreshold = balancerThreshold>0 ? balancerThreshold : 10;
+        this.balancerBandwidth = balancerBandwidth>0 ? balancerBandwidth : 1;
+        this.balancerHours = fixEmpty(balancerHours);
+        this.resultCacheMB = resultCacheMB>0 ? resultCacheMB : 10*1024;
+        this.isolateResources = isolateResources;
+        this.cgroupRoot = fixEmpty(cgroupRoot);
+        this.stashHours = stashHours>0 ? stashHours : 24;
+    }
+
+    /**
+     * Fills in the default port, which everything else in the plugin expects to be present, and the trailing '/'.
+     */
+    private static String normalizeHdfsUrl(String hdfsUrl) {
+        hdfsUrl = fixEmpty(hdfsUrl);
+        if(hdfsUrl==null)
+            return null;
+        try {
+            URI uri = new URI(hdfsUrl);
+            if(uri.getHost()!=null && uri.getPort()==-1)
+                hdfsUrl = new URI(uri.getScheme(),uri.getUserInfo(),uri.getHost(),DEFAULT_HDFS_PORT,
+                        uri.getPath(),uri.getQuery(),uri.getFragment()).toString();
+        } catch (URISyntaxException e) {
+            // leave it as is. PluginImpl.configure rejects this
+        }
+        if(!hdfsUrl.endsWith("/"))
+            hdfsUrl += '/';
+        return hdfsUrl;
+    }
+
+    /**
+     * Default configuration, where Jenkins runs the whole cluster by itself.
+     */
+    public HadoopConfiguration() {
+        this(null,null,null,null,true,false,30,false,10,1,null,0,false,null,0);
+    }
+
+    /**
+     * Fills in the defaults of the settings when loading a configuration saved before they existed,
+     * and the port of {@link #hdfsUrl} saved before it was filled in.
+     */
+    private Object readResolve() {
+        return new HadoopConfiguration(label,computeOnlyLabel,hdfsUrl,jobTrackerAddress,provisionSlaves,lazyStart,taskTrackerIdleMinutes,
+                autoBalance,balancerThreshold,balancerBandwidth,balancerHours,resultCacheMB,isolateResources,cgroupRoot,stashHours);
+    }
+
+    public Label getLabel() {
+        return Hudson.getInstance().getLabel(label);
     }
+
+    /**
+     * Determines what part of Hadoop the given node should run.
+     */
+    public NodeRole getRole(Node node) {
+        Label l = getLabel();
+        if(l!=null && !l.contains(node))
+            return NodeRole.NONE;
+        Label c = Hudson.getInstance().getLabel(computeOnlyLabel);
+        if(c!=null && c.contains(node))
+            return NodeRole.COMPUTE_ONLY;
+        return NodeRole.STORAGE_AND_COMPUTE;
+    }
+
+    /**
+     * Checks if the balancer may run at the given time, according to {@link #balancerHours}.
+     */
+    public boolean isBalancerHour(Calendar cal) {
+        if(balancerHours==null)
+            return true;
+        String[] tokens = balancerHours.split("-");
+        try {
+            int from = Integer.parseInt(tokens[0].trim());
+            int to = Integer.parseInt(tokens[tokens.length-1].trim());
+            int h = cal.get(Calendar.HOUR_OF_DAY);
+            if(from<=to)
+                return from<=h && h<to;
+            else
+                return from<=h || h<to;    // crosses midnight
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Creates the task that isolates a Hadoop VM of the given class, or returns null if isolation is disabled.
+     */
+    /*package*/ ResourceIsolationTask createIsolationTask(ResourceIsolationTask.ResourceClass c) {
+        return isolateResources ? new ResourceIsolationTask(c,cgroupRoot) : null;
+    }
+
+    /**
+     * True if the name node and the job tracker run outside Jenkins.
+     */
+    public boolean isExternal() {
+        return hdfsUrl!=null;
+    }
+
+    /**
+     * Port of the name node when {@link #hdfsUrl} doesn't have one, same as what Hadoop itself assumes.
+     */
+    public static final int DEFAULT_HDFS_PORT = 8020;
 }
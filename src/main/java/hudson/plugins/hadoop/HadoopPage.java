@@ -26,8 +26,14 @@ package hudson.plugins.hadoop;
 import hudson.model.AbstractModelObject;
 import hudson.model.Action;
 import hudson.model.Hudson;
+import org.apache.hadoop.net.NetUtils;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
-import java.net.MalformedURLException;
+import javax.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URL;
 
 /**
@@ -62,19 +68,97 @@ public class HadoopPage extends AbstractModelObject implements Action {
     }
 
     /**
-     * Returns the URL of the HDFS HTTP interface.
+     * Returns the URL of the HDFS HTTP interface, or null if Hadoop isn't running.
+     */
+    public URL getHdfsHttpURL() throws IOException {
+        if(!getPlugin().isStarted())
+            return null;
+        return new URL("http://"+getMasterHost()+":"+NameNodeStartTask.HTTP_PORT+"/");
+    }
+
+    /**
+     * Returns the URL of the job tracker HTTP interface, or null if Hadoop isn't running
+     * or we don't know where the job tracker is.
+     */
+    public URL getJobTrackerURL() throws IOException {
+        PluginImpl p = getPlugin();
+        if(!p.isStarted())
+            return null;
+        if(p.getConfiguration().isExternal()) {
+            // the job tracker of an external cluster doesn't have to be on the same host as the name node
+            String address = p.getConfiguration().jobTrackerAddress;
+            if(address==null)
+                return null;
+            return new URL("http://"+NetUtils.createSocketAddr(address).getHostName()+":"+JobTrackerStartTask.HTTP_PORT+"/");
+        }
+        return new URL("http://"+getMasterHost()+":"+JobTrackerStartTask.HTTP_PORT+"/");
+    }
+
+    /**
+     * Host that runs the name node and the job tracker.
+     * For an external cluster, we assume they use the default HTTP ports.
+     *
+     * <p>
+     * This doesn't start Hadoop in the lazy mode, as rendering a page shouldn't wait for the name node to boot.
      */
-    public URL getHdfsHttpURL() throws MalformedURLException {
-        URL url = new URL(Hudson.getInstance().getRootUrl());
-        return new URL("http://"+url.getHost()+":"+NameNodeStartTask.HTTP_PORT+"/");
+    private String getMasterHost() throws IOException {
+        PluginImpl p = getPlugin();
+        if(p.getConfiguration().isExternal())
+            return p.getHdfsAddress().getHostName();
+        return new URL(Hudson.getInstance().getRootUrl()).getHost();
     }
 
     /**
-     * Returns the URL of the job tracker HTTP interface.
+     * Browses the contents of HDFS.
+     *
+     * <p>
+     * HDFS holds the data of all the jobs (console output, stashes, etc.), so this bypasses
+     * the permission checks of individual jobs, and is therefore only available to administrators.
      */
-    public URL getJobTrackerURL() throws MalformedURLException {
-        URL url = new URL(Hudson.getInstance().getRootUrl());
-        return new URL("http://"+url.getHost()+":"+JobTrackerStartTask.HTTP_PORT+"/");
+    public HDFSDirectoryBrowser getFs() {
+        Hudson.getInstance().checkPermission(Hudson.ADMINISTER);
+        return new HDFSDirectoryBrowser();
+    }
+
+    /**
+     * Sends {@link ProvisioningStats} as tab-separated text.
+     */
+    public void doProvisioningReport(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("text/plain;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        getPlugin().getStats().writeReport(w);
+        w.close();
+    }
+
+    /**
+     * Sends the cached {@link ClusterStatus} as JSON.
+     */
+    public void doStatus(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        ClusterStatus s = getClusterStatus(rsp);
+        if(s==null)     return;
+        rsp.setContentType("application/json;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        w.print(s.toJSON());
+        w.close();
+    }
+
+    /**
+     * Sends the cached {@link ClusterStatus} for Prometheus.
+     */
+    public void doMetrics(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        ClusterStatus s = getClusterStatus(rsp);
+        if(s==null)     return;
+        rsp.setContentType("text/plain;version=0.0.4;charset=UTF-8");
+        PrintWriter w = rsp.getWriter();
+        s.writeMetrics(w);
+        w.close();
+    }
+
+    private ClusterStatus getClusterStatus(StaplerResponse rsp) throws IOException {
+        ClusterStatus s = getPlugin().getClusterStatus();
+        if(s==null)
+            rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,"Hadoop status isn't available yet");
+        return s;
     }
 
     public PluginImpl getPlugin() {
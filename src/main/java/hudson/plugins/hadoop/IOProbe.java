@@ -0,0 +1,181 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Callable;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Short benchmark of the disk under a Hadoop directory, used to size the I/O settings of the daemons
+ * to what the node can actually do, instead of applying the same defaults to a slow HDD and a fast SSD.
+ *
+ * <p>
+ * The benchmark is bounded both in size and time, and is run once per directory in each Hadoop VM.
+ * The results, along with the settings they led to, are reported in {@link ProvisioningStats}.
+ */
+final class IOProbe {
+    /**
+     * Directory to result, of the measurements done in this JVM.
+     */
+    private static final Map<File,Result> results = new HashMap<File,Result>();
+
+    /**
+     * Measures the disk of the given directory, unless it's already been measured.
+     */
+    static synchronized Result measure(File dir) throws IOException {
+        Result r = results.get(dir);
+        if(r==null) {
+            r = run(dir);
+            System.out.printf("I/O probe of %s: %.1f MB/s, fsync %.2f ms%n", dir, r.throughput, r.fsyncLatency);
+            results.put(dir,r);
+        }
+        return r;
+    }
+
+    private static Result run(File dir) throws IOException {
+        dir.mkdirs();
+        File f = File.createTempFile("ioprobe",".tmp",dir);
+        try {
+            FileOutputStream out = new FileOutputStream(f);
+            try {
+                // sequential write, including the time to get it onto the disk
+                byte[] buf = new byte[1024*1024];
+                long start = System.nanoTime();
+                long deadline = start+MAX_TIME*1000000L;
+                long written = 0;
+                while(written<MAX_BYTES && System.nanoTime()<deadline) {
+                    out.write(buf);
+                    written += buf.length;
+                }
+                out.getFD().sync();
+                double throughput = written/1024.0/1024/((System.nanoTime()-start)/1e9);
+
+                // small writes followed by fsync, which is what the data node does at the end of each block
+                start = System.nanoTime();
+                for (int i=0; i<FSYNC_COUNT; i++) {
+                    out.write(buf,0,4096);
+                    out.getFD().sync();
+                }
+                double fsyncLatency = (System.nanoTime()-start)/1e6/FSYNC_COUNT;
+
+                return new Result(dir.getPath(),throughput,fsyncLatency);
+            } finally {
+                out.close();
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    public static final class Result implements Serializable {
+        public final String dir;
+        /**
+         * Sequential write throughput in MB/s.
+         */
+        public final double throughput;
+        /**
+         * Average time of a small write followed by fsync, in milliseconds.
+         */
+        public final double fsyncLatency;
+        /**
+         * Settings that were chosen based on this result.
+         */
+        private final Map<String,String> settings = new TreeMap<String,String>();
+
+        Result(String dir, double throughput, double fsyncLatency) {
+            this.dir = dir;
+            this.throughput = throughput;
+            this.fsyncLatency = fsyncLatency;
+        }
+
+        /**
+         * 0 for slow disks like a single HDD, 2 for fast ones like SSDs, and 1 in between.
+         */
+        public int getTier() {
+            if(throughput>=300 && fsyncLatency<2)
+                return 2;
+            if(throughput<80 || fsyncLatency>20)
+                return 0;
+            return 1;
+        }
+
+        public synchronized Map<String,String> getSettings() {
+            return new TreeMap<String,String>(settings);
+        }
+
+        /*package*/ void tuneDataNode(Configuration conf) {
+            int t = getTier();
+            set(conf,"io.file.buffer.size",       t==2 ? 128*1024 : 64*1024);
+            set(conf,"dfs.datanode.max.xcievers", t==2 ? 4096 : t==1 ? 1024 : 256);
+            set(conf,"dfs.datanode.handler.count",t==2 ? 10 : t==1 ? 5 : 3);
+        }
+
+        /*package*/ void tuneTaskTracker(Configuration conf) {
+            int t = getTier();
+            set(conf,"io.file.buffer.size",       t==2 ? 128*1024 : 64*1024);
+            set(conf,"tasktracker.http.threads",  t==2 ? 80 : t==1 ? 40 : 20);
+        }
+
+        private synchronized void set(Configuration conf, String key, int value) {
+            conf.setInt(key,value);
+            settings.put(key,String.valueOf(value));
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Returns the results of the measurements done in the Hadoop VM.
+     */
+    static final class GetResults implements Callable<List<Result>,IOException> {
+        public List<Result> call() {
+            synchronized (IOProbe.class) {
+                return new ArrayList<Result>(results.values());
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Upper bound of the data written by the sequential write test.
+     */
+    public static long MAX_BYTES = Long.getLong(IOProbe.class.getName()+".maxBytes",64L*1024*1024);
+    /**
+     * Upper bound of the time spent in the sequential write test in milliseconds.
+     */
+    public static long MAX_TIME = Long.getLong(IOProbe.class.getName()+".maxTime",3000);
+    private static final int FSYNC_COUNT = 10;
+}
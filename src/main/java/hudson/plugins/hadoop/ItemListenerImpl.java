@@ -25,12 +25,8 @@ package hudson.plugins.hadoop;
 
 import hudson.Extension;
 import hudson.model.Hudson;
-import hudson.model.Computer;
 import hudson.model.listeners.ItemListener;
-import hudson.util.StreamTaskListener;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.net.ServerSocket;
@@ -40,7 +36,10 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 
 /**
- * After all the projects have loaded, start Hadoop name node.
+ * After all the projects have loaded, start Hadoop name node, unless it's to be {@linkplain HadoopConfiguration#lazyStart started lazily}.
+ *
+ * <p>
+ * Nothing is started on the master when {@linkplain HadoopConfiguration#isExternal() an external cluster} is used.
  *
  * @author Kohsuke Kawaguchi
  */
@@ -53,26 +52,17 @@ public class ItemListenerImpl extends ItemListener {
             PluginImpl p = PluginImpl.get();
             p.postInit();
             String hdfsUrl = p.getHdfsUrl();
-            if(hdfsUrl!=null) {
-                // start Hadoop namenode and tracker node
-                StreamTaskListener listener = new StreamTaskListener(System.out);
-                File root = Hudson.getInstance().getRootDir();
-                p.channel = PluginImpl.createHadoopVM(root, listener);
-                p.channel.call(new NameNodeStartTask(root, hdfsUrl, p.getHdfsAddress().getPort()));
-                /*
-                    I encountered a problem once that HDFS doesn't exit a safe mode by itself, causing Hudson to hang in the boot.
-                    So I'm doing this asynchronously now.
-                 */
-                p.channel.callAsync(new JobTrackerStartTask(root, hdfsUrl,p.getJobTrackerAddress()));
-
-                Computer c = Hudson.getInstance().toComputer();
-                String masterName = c.getHostName();
-                if(masterName ==null)
-                    listener.getLogger().println("Unable to determine the hostname/IP address of the master. Skipping Hadoop deployment");
-                p.channel.callAsync(new SlaveStartTask(c, listener, hdfsUrl, masterName));
-            } else {
+            if(p.getConfiguration().isExternal()) {
+                LOGGER.info("Using the external Hadoop cluster at "+hdfsUrl);
+            } else
+            if(hdfsUrl==null) {
                 LOGGER.info("Skipping Hadoop initialization because we don't know the root URL.");
                 p.page.pendingConfiguration = true;
+            } else
+            if(p.getConfiguration().lazyStart) {
+                LOGGER.info("Hadoop will be started when it's first used.");
+            } else {
+                p.ensureStarted();
             }
         } catch (Exception e) {
             LOGGER.log(Level.WARNING, "Failed to start Hadoop on master",e);
@@ -0,0 +1,267 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Reads HDFS files by going straight to the block files of the data node on the same machine.
+ *
+ * <p>
+ * {@link DataNodeStartTask} keeps blocks under {@code <root>/hadoop/datanode}, so a build running
+ * on the same node doesn't need to stream them through the data node over TCP. The name node still
+ * checks the read permission when we ask for the block locations, and every local replica is
+ * verified against its checksum file as it's copied. Blocks that aren't stored locally, or whose
+ * local replica fails verification, are read through the regular DFS client.
+ *
+ * <p>
+ * An instance can be used by multiple threads concurrently.
+ */
+public class LocalBlockReader {
+    private final DFSClient dfs;
+    private final FileSystem fs;
+    private final File dataDir;
+    /**
+     * Block file name like "blk_123" to its location. Built lazily, as walking the data directory isn't free.
+     */
+    private Map<String,File> blockFiles;
+
+    private final AtomicLong localBytes = new AtomicLong(), remoteBytes = new AtomicLong();
+
+    /**
+     * @param rootDir
+     *      The slave/master root, where {@link DataNodeStartTask} places the data directory.
+     */
+    public LocalBlockReader(String hdfsUrl, File rootDir) throws IOException {
+        this.dfs = PluginImpl.createDFSClient(hdfsUrl);
+        this.fs = PluginImpl.createFileSystem(hdfsUrl);
+        this.dataDir = new File(DataNodeStartTask.getDataDir(rootDir),"current");
+    }
+
+    /**
+     * Number of bytes that were read from the local block files so far.
+     */
+    public long getLocalBytes() {
+        return localBytes.get();
+    }
+
+    /**
+     * Number of bytes that had to be read through the data node protocol so far.
+     */
+    public long getRemoteBytes() {
+        return remoteBytes.get();
+    }
+
+    /**
+     * Copies the given HDFS file to a local file.
+     */
+    public void copyTo(String src, File dest) throws IOException {
+        FileOutputStream out = new FileOutputStream(dest);
+        try {
+            copyTo(src, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copies the given HDFS file to a stream.
+     */
+    public void copyTo(String src, OutputStream out) throws IOException {
+        LocatedBlocks blocks = dfs.namenode.getBlockLocations(src, 0, Long.MAX_VALUE);
+        if(blocks==null)
+            throw new FileNotFoundException(src);
+
+        FSDataInputStream in = null;
+        try {
+            for (LocatedBlock lb : blocks.getLocatedBlocks()) {
+                Block b = lb.getBlock();
+                long local = copyLocalBlock(b,out);
+                localBytes.addAndGet(local);
+                if(local==b.getNumBytes())
+                    continue;
+
+                // fall back to the data node protocol for the rest of the block
+                if(in==null)
+                    in = fs.open(new Path(src),BUFFER_SIZE);
+                in.seek(lb.getStartOffset()+local);
+                copy(in,out,b.getNumBytes()-local);
+                remoteBytes.addAndGet(b.getNumBytes()-local);
+            }
+        } finally {
+            if(in!=null)
+                in.close();
+        }
+    }
+
+    /**
+     * Copies as much of the block as the local replica has valid data for.
+     *
+     * @return
+     *      the number of bytes written, which is less than the block size if the rest needs to be read remotely.
+     */
+    private long copyLocalBlock(Block b, OutputStream out) throws IOException {
+        File data = getBlockFiles().get(b.getBlockName());
+        if(data==null || data.length()!=b.getNumBytes())
+            return 0;
+        // a different generation stamp means the replica is stale
+        File meta = new File(data.getParentFile(), b.getBlockName()+"_"+b.getGenerationStamp()+".meta");
+
+        FileInputStream in = null;
+        DataInputStream sums = null;
+        try {
+            in = new FileInputStream(data);
+            sums = new DataInputStream(new BufferedInputStream(new FileInputStream(meta),BUFFER_SIZE));
+            return copyVerified(in, b.getNumBytes(), sums, out);
+        } catch (FileNotFoundException e) {
+            return 0;   // deleted by the data node since we indexed it, or stale
+        } finally {
+            if(sums!=null)
+                sums.close();
+            if(in!=null)
+                in.close();
+        }
+    }
+
+    /**
+     * Copies the block data while checking it against the CRCs recorded by the data node,
+     * so that the replica is only read once. Only data that has passed the check is written.
+     *
+     * @return
+     *      the number of bytes written, which is less than {@code len} if the replica doesn't match its checksums
+     *      or is shorter than expected.
+     */
+    private static long copyVerified(InputStream data, long len, DataInputStream meta, OutputStream out) throws IOException {
+        long written = 0;
+        try {
+            if(meta.readShort()!=META_VERSION)
+                return 0;
+            int type = meta.readByte();
+            int bytesPerChecksum = meta.readInt();
+            boolean check = type==CHECKSUM_CRC32;
+            if(!check && type!=CHECKSUM_NULL)
+                return 0;
+            if(check && bytesPerChecksum<=0)
+                return 0;
+
+            // read as many whole checksum chunks at a time as fit in the buffer
+            int size = check ? Math.max(bytesPerChecksum,BUFFER_SIZE/bytesPerChecksum*bytesPerChecksum) : BUFFER_SIZE;
+            byte[] buf = new byte[size];
+            CRC32 crc = new CRC32();
+            while(written<len) {
+                int n = (int)Math.min(size,len-written);
+                for (int read=0; read<n; ) {
+                    int r = data.read(buf,read,n-read);
+                    if(r<0)
+                        return written;     // truncated underneath us
+                    read += r;
+                }
+                if(check) {
+                    for (int off=0; off<n; off+=bytesPerChecksum) {
+                        crc.reset();
+                        crc.update(buf,off,Math.min(bytesPerChecksum,n-off));
+                        if((int)crc.getValue()!=meta.readInt())
+                            return written;
+                    }
+                }
+                out.write(buf,0,n);
+                written += n;
+            }
+            return written;
+        } catch (EOFException e) {
+            return written;     // truncated meta file
+        }
+    }
+
+    private synchronized Map<String,File> getBlockFiles() {
+        if(blockFiles==null) {
+            blockFiles = new HashMap<String,File>();
+            index(dataDir);
+        }
+        return blockFiles;
+    }
+
+    private void index(File dir) {
+        File[] children = dir.listFiles();
+        if(children==null)  return;
+        for (File f : children) {
+            String name = f.getName();
+            if(f.isDirectory())
+                index(f);
+            else
+            if(name.startsWith("blk_") && !name.endsWith(".meta"))
+                blockFiles.put(name,f);
+        }
+    }
+
+    private static void copy(FSDataInputStream in, OutputStream out, long len) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        while(len>0) {
+            int n = in.read(buf,0,(int)Math.min(buf.length,len));
+            if(n<0)
+                throw new EOFException("Unexpected end of block");
+            out.write(buf,0,n);
+            len -= n;
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            fs.close();
+        } finally {
+            dfs.close();
+        }
+    }
+
+    private static final int BUFFER_SIZE = 128*1024;
+
+    /**
+     * Constants of the block meta file format. See {@code BlockMetadataHeader} and {@code DataChecksum}.
+     */
+    private static final short META_VERSION = 1;
+    private static final int CHECKSUM_NULL = 0;
+    private static final int CHECKSUM_CRC32 = 1;
+}
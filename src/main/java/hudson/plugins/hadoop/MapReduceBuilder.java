@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import static hudson.Util.fixEmpty;
+import static hudson.Util.fixNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.EnvironmentContributingAction;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import hudson.util.ArgumentListBuilder;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a MapReduce job, unless the same job has already been run against the same input,
+ * in which case the earlier result is reused.
+ *
+ * <p>
+ * The job writes its output into the directory given by {@link #OUTPUT_VARIABLE}, which the arguments
+ * should refer to. The result is then kept in {@link ResultCache}, and its directory there is available to the build
+ * steps that follow through the same variable, whether the job actually ran or not. The cache doesn't evict it
+ * until the build completes, and later steps are expected to only read it.
+ */
+public class MapReduceBuilder extends HDFSBuilder {
+    /**
+     * Workspace-relative path of the job jar.
+     */
+    public final String jar;
+    /**
+     * Main class, or null to use the one in the manifest of the jar.
+     */
+    public final String mainClass;
+    /**
+     * Arguments to the job, including the job configuration like "-D mapred.reduce.tasks=4".
+     */
+    public final String args;
+    /**
+     * Whitespace-separated HDFS paths (or globs) of the job input.
+     */
+    public final String inputs;
+
+    @DataBoundConstructor
+    public MapReduceBuilder(String jar, String mainClass, String args, String inputs) {
+        this.jar = jar;
+        this.mainClass = fixEmpty(mainClass);
+        this.args = args;
+        this.inputs = inputs;
+    }
+
+    @Override
+    protected boolean needsNodeRoot() {
+        return true;
+    }
+
+    @Override
+    protected boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException {
+        PluginImpl p = PluginImpl.get();
+        String jobTracker = p.getJobTrackerAddress();
+        if(jobTracker==null) {
+            listener.error("No job tracker is configured for the external cluster");
+            return false;
+        }
+        EnvVars env = build.getEnvironment(listener);
+        env.remove(OUTPUT_VARIABLE);    // from an earlier MapReduce step in this build
+        FilePath jarFile = build.getWorkspace().child(env.expand(jar));
+        if(!jarFile.exists()) {
+            listener.error(jarFile+" doesn't exist");
+            return false;
+        }
+        String expandedArgs = env.expand(args);     // ${HADOOP_OUTPUT} is still unexpanded at this point
+        List<String> inputPaths = new ArrayList<String>();
+        for (String input : env.expand(fixNull(inputs)).trim().split("\\s+"))
+            if(input.length()>0)
+                inputPaths.add(input);
+
+        ResultCache cache = p.getResultCache();
+        FileSystem fs = p.createFileSystem();
+        try {
+            String key = ResultCache.computeKey(fs, jarFile.digest(), mainClass, expandedArgs, inputPaths);
+            if(cache.acquire(fs,key)) {
+                listener.getLogger().println("Reusing the result of an earlier run of the same job in HDFS "+ResultCache.getPath(key));
+            } else {
+                // run into a directory of our own, so that concurrent builds of the same job don't trample on each other
+                Path tmp = new Path(PluginImpl.getHdfsPath(build)+"/mapreduce/"+key+".tmp");
+                fs.delete(tmp,true);    // leftover of a failed run, if any
+                env.put(OUTPUT_VARIABLE,tmp.toUri().getPath());
+                int r = launch(launcher, listener, build.getWorkspace(), root, env, hdfsUrl, jobTracker,
+                        jarFile.getRemote(), env.expand(expandedArgs));
+                if(r!=0) {
+                    fs.delete(tmp,true);
+                    return false;
+                }
+                cache.add(fs,key,tmp,p.getConfiguration().resultCacheMB*1024*1024);
+            }
+            // the result stays acquired, and thus in the cache, until RunListenerImpl releases it when the build completes
+            build.addAction(new OutputAction(ResultCache.getPath(key),key));
+            return true;
+        } finally {
+            fs.close();
+        }
+    }
+
+    /**
+     * Runs the job through {@code RunJar} in a new JVM on the node of the build, with the Hadoop installed by the plugin.
+     */
+    private int launch(Launcher launcher, BuildListener listener, FilePath ws, FilePath root, EnvVars env,
+                       String hdfsUrl, String jobTracker, String jarPath, String jobArgs) throws IOException, InterruptedException {
+        FilePath dist = PluginImpl.installHadoop(root, listener);
+
+        FilePath conf = root.child("hadoop/client-conf");
+        conf.mkdirs();
+        conf.child("hadoop-site.xml").write(
+            "<?xml version=\"1.0\"?>\n" +
+            "<configuration>\n" +
+            "  <property><name>fs.default.name</name><value>"+hdfsUrl+"</value></property>\n" +
+            "  <property><name>mapred.job.tracker</name><value>"+jobTracker+"</value></property>\n" +
+            "</configuration>\n", "UTF-8");
+
+        StringBuilder cp = new StringBuilder(conf.getRemote());
+        for (FilePath f : dist.list("hadoop-*-core.jar,lib/**/*.jar"))
+            cp.append(launcher.isUnix() ? ':' : ';').append(f.getRemote());
+
+        ArgumentListBuilder cmd = new ArgumentListBuilder();
+        cmd.add("java","-cp",cp.toString(),"org.apache.hadoop.util.RunJar",jarPath);
+        if(mainClass!=null)
+            cmd.add(mainClass);
+        cmd.addTokenized(jobArgs);
+
+        return launcher.launch().cmds(cmd).envs(env).stdout(listener).pwd(ws).join();
+    }
+
+    /**
+     * Exposes the output directory of the job to the rest of the build.
+     */
+    public static final class OutputAction implements EnvironmentContributingAction {
+        public final String path;
+        /**
+         * Key of the result in {@link ResultCache}.
+         */
+        public final String key;
+
+        OutputAction(String path, String key) {
+            this.path = path;
+            this.key = key;
+        }
+
+        public void buildEnvVars(AbstractBuild<?,?> build, EnvVars env) {
+            env.put(OUTPUT_VARIABLE,path);
+        }
+
+        public String getIconFileName() {
+            return null;
+        }
+
+        public String getDisplayName() {
+            return "MapReduce output";
+        }
+
+        public String getUrlName() {
+            return null;
+        }
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Run a MapReduce job";
+        }
+    }
+
+    /**
+     * Environment variable that points to the HDFS output directory of the job.
+     */
+    public static final String OUTPUT_VARIABLE = "HADOOP_OUTPUT";
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+/**
+ * What part of Hadoop a node runs.
+ *
+ * @see HadoopConfiguration#getRole(hudson.model.Node)
+ */
+public enum NodeRole {
+    /**
+     * Runs a data node and a task tracker.
+     */
+    STORAGE_AND_COMPUTE(true,true),
+    /**
+     * Runs just a task tracker. Suitable for short-lived nodes, which would otherwise cause
+     * HDFS to re-replicate their blocks every time they go away.
+     */
+    COMPUTE_ONLY(false,true),
+    /**
+     * Doesn't run Hadoop.
+     */
+    NONE(false,false);
+
+    public final boolean storage;
+    public final boolean compute;
+
+    NodeRole(boolean storage, boolean compute) {
+        this.storage = storage;
+        this.compute = compute;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.FilePath;
+import hudson.FilePath.FileCallable;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single HDFS file that packs many small files, so that they cost the name node one entry instead of one per file.
+ *
+ * <p>
+ * The file consists of the contents of all the entries back to back, followed by the index
+ * (name, offset, length, and timestamp of each entry), the offset of the index, and a magic number.
+ * Readers load the index from the tail, then access individual entries with positioned reads
+ * over a single open stream, so reading any number of entries costs the name node one lookup.
+ * Pack files are recognized by the {@link #EXTENSION}, and {@link HDFSDirectoryBrowser} shows them like directories.
+ */
+public class PackFile implements Closeable {
+    private final Path path;
+    private final FSDataInputStream in;
+    private final Map<String,Entry> entries = new LinkedHashMap<String,Entry>();
+
+    /**
+     * Opens an existing pack file and loads its index. The caller needs to {@link #close()} it.
+     */
+    public PackFile(FileSystem fs, Path path) throws IOException {
+        this.path = path;
+
+        in = fs.open(path,BUFFER_SIZE);
+        boolean ok = false;
+        try {
+            long len = fs.getFileStatus(path).getLen();
+            if(len<TRAILER_SIZE)
+                throw new IOException(path+" is not a pack file");
+            in.seek(len-TRAILER_SIZE);
+            long indexOffset = in.readLong();
+            if(in.readInt()!=MAGIC)
+                throw new IOException(path+" is not a pack file");
+
+            in.seek(indexOffset);
+            int n = in.readInt();
+            for (int i=0; i<n; i++) {
+                Entry e = new Entry(in.readUTF(),in.readLong(),in.readLong(),in.readLong());
+                entries.put(e.name,e);
+            }
+            ok = true;
+        } finally {
+            if(!ok)
+                in.close();
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Returns the entry of the given name, or null if there's no such entry.
+     */
+    public Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Copies the contents of the given entry.
+     */
+    public void writeTo(Entry e, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long pos = e.offset;
+        long end = e.offset+e.length;
+        while(pos<end) {
+            int n = (int)Math.min(buf.length,end-pos);
+            in.readFully(pos,buf,0,n);
+            out.write(buf,0,n);
+            pos += n;
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Extracts all the entries into the given local directory.
+     *
+     * @return
+     *      the number of files extracted.
+     * @throws IOException
+     *      if an entry would end up outside the directory, among other things.
+     */
+    /*package*/ int extractTo(File dir) throws IOException {
+        Extractor x = extractor(dir);
+        boolean ok = false;
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long pos = 0;
+            long end = x.getEnd();
+            while(pos<end) {
+                int n = (int)Math.min(buf.length,end-pos);
+                in.readFully(pos,buf,0,n);
+                x.write(buf,0,n);
+                pos += n;
+            }
+            x.close();
+            ok = true;
+        } finally {
+            if(!ok)
+                x.abort();
+        }
+        return entries.size();
+    }
+
+    /**
+     * Creates a stream that extracts the entries into the given local directory
+     * as the contents of this pack file are written to it from the beginning.
+     * This lets the pack file be read sequentially from wherever it's cheapest, without a temporary copy.
+     *
+     * @throws IOException
+     *      if an entry would end up outside the directory. Nothing is extracted in that case.
+     */
+    /*package*/ Extractor extractor(File dir) throws IOException {
+        return new Extractor(dir);
+    }
+
+    /**
+     * Routes the contents of the pack file to the files of the entries.
+     * Bytes after the last entry (the index and the trailer) are ignored.
+     */
+    /*package*/ final class Extractor extends OutputStream {
+        private final List<Entry> todo = new ArrayList<Entry>(entries.values());
+        private final List<File> files = new ArrayList<File>();
+        /**
+         * Index of the entry that's being written, or the next one to be written.
+         */
+        private int next;
+        /**
+         * Offset in the pack file of the next byte that's written to us.
+         */
+        private long pos;
+        /**
+         * Open stream of {@code todo.get(next)}, if we are in the middle of it.
+         */
+        private OutputStream out;
+
+        private Extractor(File dir) throws IOException {
+            Collections.sort(todo,new Comparator<Entry>() {
+                public int compare(Entry x, Entry y) {
+                    return x.offset<y.offset ? -1 : x.offset==y.offset ? 0 : 1;
+                }
+            });
+            // check everything up front, so that a bad pack file doesn't leave half of itself behind
+            String root = dir.getCanonicalPath()+File.separator;
+            long end = 0;
+            for (Entry e : todo) {
+                File f = new File(dir,e.name);
+                if(!f.getCanonicalPath().startsWith(root))
+                    throw new IOException("Entry "+e.name+" in "+path+" points outside "+dir);
+                if(e.offset<end || e.length<0)
+                    throw new IOException("Entry "+e.name+" in "+path+" overlaps with another entry");
+                end = e.offset+e.length;
+                files.add(f);
+            }
+        }
+
+        /**
+         * Offset in the pack file where the contents of the last entry end.
+         */
+        /*package*/ long getEnd() {
+            if(todo.isEmpty())  return 0;
+            Entry e = todo.get(todo.size()-1);
+            return e.offset+e.length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b},0,1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while(true) {
+                advance();
+                if(len==0 || next==todo.size())
+                    return;     // past the last entry, this is the index
+
+                Entry e = todo.get(next);
+                int n;
+                if(pos<e.offset) {
+                    n = (int)Math.min(len,e.offset-pos);     // gap between entries
+                } else {
+                    if(out==null)
+                        out = open(next);
+                    n = (int)Math.min(len,e.offset+e.length-pos);
+                    out.write(b,off,n);
+                }
+                pos += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Finishes the entries that have all their contents written, including empty ones.
+         */
+        private void advance() throws IOException {
+            while(next<todo.size()) {
+                Entry e = todo.get(next);
+                if(pos<e.offset+e.length)
+                    return;
+                if(out==null)
+                    out = open(next);
+                out.close();
+                out = null;
+                files.get(next).setLastModified(e.timestamp);
+                next++;
+            }
+        }
+
+        private OutputStream open(int i) throws IOException {
+            File f = files.get(i);
+            f.getParentFile().mkdirs();
+            return new FileOutputStream(f);
+        }
+
+        /**
+         * @throws IOException
+         *      if the stream ended before all the entries were written.
+         */
+        @Override
+        public void close() throws IOException {
+            advance();
+            if(next<todo.size()) {
+                abort();
+                throw new IOException("Unexpected end of "+path+" while extracting "+todo.get(next).name);
+            }
+        }
+
+        /**
+         * Closes the entry being written after a failure.
+         */
+        public void abort() {
+            if(out==null)   return;
+            try {
+                out.close();
+            } catch (IOException e) {
+                // we are already failing
+            }
+            out = null;
+        }
+    }
+
+    /**
+     * One packed file.
+     */
+    public static final class Entry {
+        /**
+         * '/'-separated relative path of the file.
+         */
+        public final String name;
+        public final long offset;
+        public final long length;
+        public final long timestamp;
+
+        Entry(String name, long offset, long length, long timestamp) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Creates a new pack file.
+     */
+    public static final class Writer {
+        private final FSDataOutputStream out;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private final byte[] buf = new byte[BUFFER_SIZE];
+
+        public Writer(FileSystem fs, Path path) throws IOException {
+            out = fs.create(path,true,BUFFER_SIZE);
+        }
+
+        public void add(String name, long timestamp, InputStream in) throws IOException {
+            long offset = out.getPos();
+            int len;
+            while((len=in.read(buf))>=0)
+                out.write(buf,0,len);
+            entries.add(new Entry(name,offset,out.getPos()-offset,timestamp));
+        }
+
+        /**
+         * Closes the file without writing the index, after a failure.
+         * The file isn't a valid pack file, and should be deleted.
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // we are already failing
+            }
+        }
+
+        /**
+         * Writes the index and closes the file.
+         */
+        public void close() throws IOException {
+            long indexOffset = out.getPos();
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeUTF(e.name);
+                out.writeLong(e.offset);
+                out.writeLong(e.length);
+                out.writeLong(e.timestamp);
+            }
+            out.writeLong(indexOffset);
+            out.writeInt(MAGIC);
+            out.close();
+        }
+    }
+
+    /**
+     * Packs files in the given directory into a new pack file.
+     *
+     * @param includes
+     *      Ant-style pattern of the files to pack.
+     * @return
+     *      the number of files packed.
+     */
+    public static int pack(FilePath dir, String includes, String hdfsUrl, String dest, TaskListener listener) throws IOException, InterruptedException {
+        return dir.act(new PackTask(hdfsUrl, includes, dest, listener));
+    }
+
+    /**
+     * Extracts all the entries of the given pack file into a local directory.
+     *
+     * @return
+     *      the number of files extracted.
+     */
+    public static int unpack(String hdfsUrl, String src, FilePath dir, TaskListener listener) throws IOException, InterruptedException {
+        return dir.act(new UnpackTask(hdfsUrl, src, null, listener));
+    }
+
+    /**
+     * Extracts all the entries of the given pack file into a local directory,
+     * reading the blocks of the pack file from the local data node when it has them.
+     *
+     * @param rootPath
+     *      The root of the node that {@code dir} lives on, used to find local block replicas.
+     * @see LocalBlockReader
+     */
+    public static int unpack(String hdfsUrl, String src, FilePath dir, FilePath rootPath, TaskListener listener) throws IOException, InterruptedException {
+        return dir.act(new UnpackTask(hdfsUrl, src, rootPath.getRemote(), listener));
+    }
+
+    private static final class PackTask implements FileCallable<Integer> {
+        private final String hdfsUrl;
+        private final String includes;
+        private final String dest;
+        private final TaskListener listener;
+
+        PackTask(String hdfsUrl, String includes, String dest, TaskListener listener) {
+            this.hdfsUrl = hdfsUrl;
+            this.includes = includes;
+            this.dest = dest;
+            this.listener = listener;
+        }
+
+        public Integer invoke(File dir, VirtualChannel channel) throws IOException {
+            String[] files = Util.createFileSet(dir,includes).getDirectoryScanner().getIncludedFiles();
+            FileSystem fs = PluginImpl.createFileSystem(hdfsUrl);
+            try {
+                Path p = new Path(dest);
+                Writer w = new Writer(fs,p);
+                boolean ok = false;
+                try {
+                    for (String name : files) {
+                        File f = new File(dir,name);
+                        FileInputStream in = new FileInputStream(f);
+                        try {
+                            w.add(name.replace(File.separatorChar,'/'),f.lastModified(),in);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                    w.close();
+                    ok = true;
+                } finally {
+                    if(!ok) {
+                        // don't leave a pack file without the index behind
+                        w.abort();
+                        fs.delete(p,false);
+                    }
+                }
+            } finally {
+                fs.close();
+            }
+            listener.getLogger().println("Packed "+files.length+" files into HDFS "+dest);
+            return files.length;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class UnpackTask implements FileCallable<Integer> {
+        private final String hdfsUrl;
+        private final String src;
+        /**
+         * If non-null, the contents of the pack file are read through {@link LocalBlockReader}.
+         */
+        private final String rootPath;
+        private final TaskListener listener;
+
+        UnpackTask(String hdfsUrl, String src, String rootPath, TaskListener listener) {
+            this.hdfsUrl = hdfsUrl;
+            this.src = src;
+            this.rootPath = rootPath;
+            this.listener = listener;
+        }
+
+        public Integer invoke(File dir, VirtualChannel channel) throws IOException {
+            dir.mkdirs();
+            FileSystem fs = PluginImpl.createFileSystem(hdfsUrl);
+            try {
+                PackFile pack = new PackFile(fs,new Path(src));
+                try {
+                    int n = rootPath==null ? pack.extractTo(dir) : extractLocally(pack,dir);
+                    listener.getLogger().println("Extracted "+n+" files from HDFS "+src);
+                    return n;
+                } finally {
+                    pack.close();
+                }
+            } finally {
+                fs.close();
+            }
+        }
+
+        /**
+         * The index is small, so it's loaded with positioned reads as usual,
+         * but the contents are streamed from the local block replicas straight into the files.
+         */
+        private int extractLocally(PackFile pack, File dir) throws IOException {
+            Extractor x = pack.extractor(dir);
+            LocalBlockReader reader = new LocalBlockReader(hdfsUrl, new File(rootPath));
+            boolean ok = false;
+            try {
+                reader.copyTo(src,x);
+                x.close();
+                ok = true;
+            } finally {
+                if(!ok)
+                    x.abort();
+                reader.close();
+            }
+            return pack.getEntries().size();
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * File name extension of pack files.
+     */
+    public static final String EXTENSION = ".pack";
+
+    private static final int MAGIC = 0x4a504b31; // "JPK1"
+    private static final int TRAILER_SIZE = 8+4;
+    private static final int BUFFER_SIZE = 64*1024;
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+
+/**
+ * Packs files in the workspace into a single HDFS {@link PackFile}.
+ *
+ * @see PackFile#pack(FilePath, String, String, String, TaskListener)
+ */
+public class PackToHDFSBuilder extends HDFSBuilder {
+    /**
+     * Ant-style pattern of the workspace files to pack.
+     */
+    public final String includes;
+    /**
+     * HDFS path of the pack file to create.
+     */
+    public final String target;
+
+    @DataBoundConstructor
+    public PackToHDFSBuilder(String includes, String target) {
+        this.includes = includes;
+        this.target = target;
+    }
+
+    @Override
+    protected AbstractBuild<?,?> getQuotaOwner(AbstractBuild<?,?> build) {
+        return build;
+    }
+
+    @Override
+    protected boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException {
+        PluginImpl p = PluginImpl.get();
+        EnvVars env = build.getEnvironment(listener);
+        String dest = env.expand(target);
+        if(!dest.endsWith(PackFile.EXTENSION))
+            dest += PackFile.EXTENSION;
+        PackFile.pack(build.getWorkspace(), env.expand(includes), hdfsUrl, dest, listener);
+        p.getUsage().record(build, dest);
+        return true;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Pack files into HDFS";
+        }
+    }
+}
@@ -26,22 +26,41 @@ package hudson.plugins.hadoop;
 
 import hudson.FilePath;
 import hudson.Plugin;
+import hudson.Util;
+import hudson.model.Descriptor.FormException;
 import hudson.model.Hudson;
+import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.model.Computer;
 import hudson.remoting.Channel;
+import hudson.remoting.VirtualChannel;
 import hudson.slaves.Channels;
 import hudson.util.ClasspathBuilder;
+import hudson.util.FormValidation;
+import hudson.util.IOException2;
+import hudson.util.StreamTaskListener;
+import net.sf.json.JSONObject;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hdfs.DFSClient;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
+
+import javax.servlet.ServletException;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,19 +70,75 @@ import java.util.logging.Logger;
  * @author Kohsuke Kawaguchi
  */
 public class PluginImpl extends Plugin {
-    /*package*/ Channel channel;
-    /*package*/ HadoopPage page = new HadoopPage();
-    private String masterHostName;
+    /*package*/ transient Channel channel;
+    /*package*/ transient HadoopPage page = new HadoopPage();
+    private transient String masterHostName;
+    private transient volatile boolean started;
+
+    private HadoopConfiguration configuration;
+
+    /*package*/ final transient ProvisioningStats stats = new ProvisioningStats();
+
+    private transient UsageIndex usage;
+
+    private transient ResultCache resultCache;
+
+    /*package*/ transient volatile ClusterStatus clusterStatus;
+
+    /*package*/ final transient BalancerService balancer = new BalancerService();
 
     @Override
     public void start() throws Exception {
+        load();
+        usage = UsageIndex.load(new File(Hudson.getInstance().getRootDir(),"hadoop-usage.xml"));
+        resultCache = ResultCache.load(new File(Hudson.getInstance().getRootDir(),"hadoop-mrcache.xml"));
         Hudson.getInstance().getActions().add(page);
     }
 
+    @Override
+    public void configure(StaplerRequest req, JSONObject formData) throws IOException, ServletException, FormException {
+        // the rest of the plugin assumes a usable URL, so don't save one that only the form check complained about
+        FormValidation v = doCheckHdfsUrl(formData.optString("hdfsUrl"));
+        if(v.kind==FormValidation.Kind.ERROR)
+            throw new FormException(v.getMessage(),"hdfsUrl");
+        configuration = req.bindJSON(HadoopConfiguration.class,formData);
+        save();
+    }
+
+    /**
+     * Checks the external HDFS URL in the configuration form. {@link #configure(StaplerRequest, JSONObject)}
+     * rejects what this reports as an error.
+     */
+    public FormValidation doCheckHdfsUrl(@QueryParameter String value) {
+        value = Util.fixEmpty(value);
+        if(value==null)
+            return FormValidation.ok();
+        try {
+            URI uri = new URI(value);
+            if(!"hdfs".equals(uri.getScheme()))
+                return FormValidation.error("Should start with hdfs://");
+            if(uri.getHost()==null)
+                return FormValidation.error("No host name in "+value);
+            if(uri.getPort()==-1)
+                return FormValidation.warning("No port number. The default port "+HadoopConfiguration.DEFAULT_HDFS_PORT+" will be used");
+            return FormValidation.ok();
+        } catch (URISyntaxException e) {
+            return FormValidation.error("Not a valid URL: "+e.getMessage());
+        }
+    }
+
+    public HadoopConfiguration getConfiguration() {
+        if(configuration==null)
+            configuration = new HadoopConfiguration();
+        return configuration;
+    }
+
     /**
      * Determines the HDFS URL.
      */
     public String getHdfsUrl() throws MalformedURLException {
+        if(getConfiguration().isExternal())
+            return getConfiguration().hdfsUrl;
         InetSocketAddress a = getHdfsAddress();
         if(a==null)     return null;
         return "hdfs://"+a.getHostName()+":"+a.getPort()+"/";
@@ -73,6 +148,10 @@ public class PluginImpl extends Plugin {
      * Determines the HDFS connection endpoint.
      */
     public InetSocketAddress getHdfsAddress() throws MalformedURLException {
+        if(getConfiguration().isExternal()) {
+            URI uri = URI.create(getConfiguration().hdfsUrl);
+            return new InetSocketAddress(uri.getHost(),uri.getPort());
+        }
         // TODO: port should be configurable
         if(masterHostName==null)
             return null;
@@ -83,19 +162,61 @@ public class PluginImpl extends Plugin {
      * Connects to this HDFS.
      */
     public DFSClient createDFSClient() throws IOException {
+        ensureStarted();
         return new DFSClient(getHdfsAddress(),new Configuration(false));
     }
 
+    /**
+     * Connects to this HDFS through the {@link FileSystem} API.
+     */
+    public FileSystem createFileSystem() throws IOException {
+        ensureStarted();
+        return createFileSystem(getHdfsUrl());
+    }
+
+    /**
+     * Connects to the HDFS at the given URL.
+     *
+     * <p>
+     * Unlike {@link #createDFSClient()}, this works on slaves, where {@link #get()} isn't available.
+     */
+    static /*package*/ DFSClient createDFSClient(String hdfsUrl) throws IOException {
+        URI uri = URI.create(hdfsUrl);
+        return new DFSClient(new InetSocketAddress(uri.getHost(),uri.getPort()),new Configuration());
+    }
+
+    /**
+     * Connects to the HDFS at the given URL through the {@link FileSystem} API.
+     *
+     * <p>
+     * We don't use {@link FileSystem#get(URI, Configuration)} because it hands out a shared instance,
+     * and the caller couldn't close it without affecting others.
+     */
+    static /*package*/ FileSystem createFileSystem(String hdfsUrl) throws IOException {
+        DistributedFileSystem fs = new DistributedFileSystem();
+        fs.initialize(URI.create(hdfsUrl),new Configuration());
+        return fs;
+    }
+
     /**
      * Determines the job tracker address.
      */
     public String getJobTrackerAddress() throws MalformedURLException {
+        if(getConfiguration().isExternal())
+            return getConfiguration().jobTrackerAddress;
         // TODO: port should be configurable
         if(masterHostName==null)
             return null;
         return masterHostName+":"+JOB_TRACKER_PORT_NUMBER;
     }
 
+    /**
+     * Determines the HDFS directory where the plugin keeps data that belongs to the given build.
+     */
+    public static String getHdfsPath(Run<?,?> build) {
+        return "/jenkins/jobs/"+build.getParent().getFullName()+"/builds/"+build.getNumber();
+    }
+
     /**
      * Launches Hadoop in a separate JVM.
      *
@@ -103,10 +224,8 @@ public class PluginImpl extends Plugin {
      *      The slave/master root.
      */
     static /*package*/ Channel createHadoopVM(File rootDir, TaskListener listener) throws IOException, InterruptedException {
-        // install Hadoop if it's not there
+        FilePath distDir = installHadoop(new FilePath(rootDir),listener);
         rootDir = new File(rootDir,"hadoop");
-        FilePath distDir = new FilePath(new File(rootDir,"dist"));
-        distDir.installIfNecessaryFrom(PluginImpl.class.getResource("hadoop.tar.gz"),listener,"Hadoop");
 
         File logDir = new File(rootDir,"logs");
         logDir.mkdirs();
@@ -116,6 +235,36 @@ public class PluginImpl extends Plugin {
                 Collections.singletonMap("hadoop.log.dir",logDir.getAbsolutePath()));
     }
 
+    /**
+     * Lowers the priority of the given Hadoop VM, if so configured.
+     *
+     * @param task
+     *      null to do nothing.
+     */
+    static /*package*/ void isolate(Channel channel, ResourceIsolationTask task, TaskListener listener) throws InterruptedException {
+        if(task==null)
+            return;
+        try {
+            listener.getLogger().println(channel.call(task));
+        } catch (IOException e) {
+            e.printStackTrace(listener.error("Failed to isolate the Hadoop VM"));
+        }
+    }
+
+    /**
+     * Installs Hadoop if it's not there.
+     *
+     * @param rootDir
+     *      The slave/master root.
+     * @return
+     *      The directory Hadoop is installed in.
+     */
+    static /*package*/ FilePath installHadoop(FilePath rootDir, TaskListener listener) throws IOException, InterruptedException {
+        FilePath distDir = rootDir.child("hadoop/dist");
+        distDir.installIfNecessaryFrom(PluginImpl.class.getResource("hadoop.tar.gz"),listener,"Hadoop");
+        return distDir;
+    }
+
     /**
      * Compute the host name that Hadoop nodes can be used to talk to Name node.
      *
@@ -180,6 +329,206 @@ public class PluginImpl extends Plugin {
         masterHostName = getMasterHostName();
     }
 
+    /**
+     * True if the name node and the job tracker are up (or are outside Jenkins.)
+     */
+    public boolean isStarted() {
+        return started || getConfiguration().isExternal();
+    }
+
+    /**
+     * Starts the name node, the job tracker, and the data node/task tracker on the master, unless they are already running.
+     *
+     * <p>
+     * In the {@linkplain HadoopConfiguration#lazyStart lazy mode}, this is how Hadoop gets started on the first use.
+     */
+    public void ensureStarted() throws IOException {
+        if(isStarted())
+            return;     // the common case. don't make every HDFS user contend on the lock
+        start0();
+    }
+
+    private synchronized void start0() throws IOException {
+        if(isStarted())
+            return;     // somebody else has started it while we were waiting
+        String hdfsUrl = getHdfsUrl();
+        if(hdfsUrl==null)
+            return;     // we don't know the root URL yet
+
+        boolean ok = false;
+        try {
+            // start Hadoop namenode and tracker node
+            long start = System.currentTimeMillis();
+            StreamTaskListener listener = new StreamTaskListener(System.out);
+            File root = Hudson.getInstance().getRootDir();
+            channel = createHadoopVM(root, listener);
+            isolate(channel, getConfiguration().createIsolationTask(ResourceIsolationTask.ResourceClass.MASTER), listener);
+            channel.call(new NameNodeStartTask(root, hdfsUrl, getHdfsAddress().getPort()));
+            stats.recordMasterBoot(System.currentTimeMillis()-start);
+            /*
+                I encountered a problem once that HDFS doesn't exit a safe mode by itself, causing Hudson to hang in the boot.
+                So I'm doing this asynchronously now.
+             */
+            shutdownIfFailed(channel.callAsync(new JobTrackerStartTask(root, hdfsUrl,getJobTrackerAddress())), channel);
+
+            Computer c = Hudson.getInstance().toComputer();
+            String masterName = c.getHostName();
+            if(masterName ==null)
+                listener.getLogger().println("Unable to determine the hostname/IP address of the master. Skipping Hadoop deployment");
+            recordWhenDone(channel.callAsync(new SlaveStartTask(c, listener, hdfsUrl, masterName, !getConfiguration().lazyStart)), start);
+            started = true;
+            ok = true;
+        } catch (InterruptedException e) {
+            throw new IOException2(e);
+        } finally {
+            // don't leave a half-started VM behind, so that the next call can try again from scratch
+            if(!ok)
+                shutdown();
+        }
+
+        // slaves that came online before this point have been left alone by ComputerListenerImpl
+        final long requested = System.currentTimeMillis();
+        for (final Computer c : Hudson.getInstance().getComputers()) {
+            if(c==Hudson.getInstance().toComputer() || !c.isOnline())
+                continue;
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                public void run() {
+                    StreamTaskListener listener = new StreamTaskListener(System.out);
+                    try {
+                        provision(c,listener,requested);
+                    } catch (IOException e) {
+                        e.printStackTrace(listener.error("Failed to start Hadoop on "+c.getName()));
+                    } catch (InterruptedException e) {
+                        e.printStackTrace(listener.error("Failed to start Hadoop on "+c.getName()));
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Starts Hadoop on a slave, according to its {@link NodeRole}.
+     *
+     * @param requested
+     *      When the slave became ready for Hadoop, like when it came online. {@link ProvisioningStats.Node#getTotalTime()}
+     *      is measured from here, so that it includes the time spent waiting for a thread to get to this slave.
+     */
+    /*package*/ void provision(Computer c, TaskListener listener, long requested) throws IOException, InterruptedException {
+        String hdfsUrl = getHdfsUrl();
+        if(hdfsUrl==null)
+            return;
+        String address = c.getHostName();
+        if(address==null) {
+            listener.getLogger().println("Unable to determine the hostname/IP address of this system. Skipping Hadoop deployment");
+            return;
+        }
+        SlaveStartTask task = new SlaveStartTask(c, listener, hdfsUrl, address, !getConfiguration().lazyStart);
+        if(task.getRole()==NodeRole.NONE)
+            return;
+        ProvisioningStats.Node n = c.getChannel().call(task);
+        if(n!=null)
+            stats.record(n.setTotalTime(System.currentTimeMillis()-requested));
+        if(task.getRole().storage)
+            balancer.onDataNodeJoined();
+    }
+
+    /**
+     * Shuts down the Hadoop VM if the job tracker fails to start in it, so that {@link #ensureStarted()} tries again.
+     */
+    private void shutdownIfFailed(final Future<?> f, final Channel ch) {
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    f.get();
+                } catch (InterruptedException e) {
+                    // just give up
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Failed to start the job tracker",e);
+                    synchronized (PluginImpl.this) {
+                        if(channel==ch)     // not restarted in the mean time
+                            shutdown();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes the Hadoop VM, if any.
+     */
+    private synchronized void shutdown() {
+        started = false;
+        if(channel==null)   return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the Hadoop VM",e);
+        }
+        channel = null;
+    }
+
+    private void recordWhenDone(final Future<ProvisioningStats.Node> f, final long start) {
+        Computer.threadPoolForRemoting.submit(new Runnable() {
+            public void run() {
+                try {
+                    ProvisioningStats.Node n = f.get();
+                    if(n!=null)
+                        stats.record(n.setTotalTime(System.currentTimeMillis()-start));
+                } catch (InterruptedException e) {
+                    // just give up
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Failed to start Hadoop on the master",e);
+                }
+            }
+        });
+    }
+
+    public ProvisioningStats getStats() {
+        return stats;
+    }
+
+    /**
+     * The latest snapshot taken by {@link ClusterStatusUpdater}, or null if none has been taken yet.
+     */
+    public ClusterStatus getClusterStatus() {
+        return clusterStatus;
+    }
+
+    public BalancerService getBalancer() {
+        return balancer;
+    }
+
+    /**
+     * HDFS space used by each job.
+     */
+    public UsageIndex getUsage() {
+        return usage;
+    }
+
+    /**
+     * Cache of MapReduce job results used by {@link MapReduceBuilder}.
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Starts or stops the task tracker on the given node.
+     *
+     * @return
+     *      false if the node doesn't run Hadoop.
+     */
+    /*package*/ boolean setTaskTracker(Computer c, boolean run) throws IOException, InterruptedException {
+        boolean master = c==Hudson.getInstance().toComputer();
+        VirtualChannel ch = master ? channel : c.getChannel();
+        if(ch==null)
+            return false;
+        TaskTrackerStartTask start = null;
+        if(run)
+            start = new TaskTrackerStartTask(getHdfsUrl(), c.getNode().getRootPath().getRemote(), c.getHostName(), getJobTrackerAddress());
+        return ch.call(new TaskTrackerControlTask(start));
+    }
+
     @Override
     public void stop() throws Exception {
         if(channel!=null)
@@ -0,0 +1,166 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Callable;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measurements of how long it took to bring Hadoop up, and how much memory its JVMs use,
+ * so that changes to the provisioning can be judged by numbers as the number of slaves grows.
+ *
+ * <p>
+ * Shown on {@link HadoopPage}, and available as text from {@code /hadoop/provisioningReport}.
+ */
+public final class ProvisioningStats {
+    private volatile long masterBootTime = -1;
+    /**
+     * Node name to its latest measurement.
+     */
+    private final Map<String,Node> nodes = Collections.synchronizedMap(new TreeMap<String,Node>());
+
+    /**
+     * Time in milliseconds it took to start the name node, or -1 if it hasn't been started.
+     */
+    public long getMasterBootTime() {
+        return masterBootTime;
+    }
+
+    /*package*/ void recordMasterBoot(long time) {
+        masterBootTime = time;
+    }
+
+    /*package*/ void record(Node n) {
+        nodes.put(n.name, n);
+    }
+
+    public List<Node> getNodes() {
+        synchronized (nodes) {
+            return new ArrayList<Node>(nodes.values());
+        }
+    }
+
+    /**
+     * Writes the measurements as tab-separated text, along with a summary.
+     */
+    public void writeReport(PrintWriter w) {
+        List<Node> all = getNodes();
+        w.println("# master boot (ms)\t"+masterBootTime);
+        w.println("# nodes\t"+all.size());
+        if(!all.isEmpty()) {
+            long total=0, max=0, heap=0;
+            for (Node n : all) {
+                total += n.getTotalTime();
+                max = Math.max(max,n.getTotalTime());
+                heap += n.heapUsed;
+            }
+            w.println("# average time to start (ms)\t"+total/all.size());
+            w.println("# maximum time to start (ms)\t"+max);
+            w.println("# average heap per Hadoop JVM (bytes)\t"+heap/all.size());
+        }
+        w.println("node\trole\ttotal\tvm\tdatanode\ttasktracker\theapUsed\tnonHeapUsed");
+        for (Node n : all)
+            w.println(n.name+'\t'+n.role+'\t'+n.getTotalTime()+'\t'+n.vmTime+'\t'+n.dataNodeTime+'\t'+n.taskTrackerTime+'\t'+n.heapUsed+'\t'+n.nonHeapUsed);
+
+        w.println();
+        w.println("node\tdir\tthroughput (MB/s)\tfsync (ms)\tsettings");
+        for (Node n : all)
+            for (IOProbe.Result r : n.ioProbes)
+                w.printf("%s\t%s\t%.1f\t%.2f\t%s%n", n.name, r.dir, r.throughput, r.fsyncLatency, r.getSettings());
+    }
+
+    /**
+     * Measurement of one node. Times are in milliseconds, and -1 for daemons that weren't started.
+     */
+    public static final class Node implements Serializable {
+        public final String name;
+        public final NodeRole role;
+        /**
+         * From the node coming online to {@link SlaveStartTask} completing, as seen by the master.
+         */
+        private long totalTime = -1;
+        public final long vmTime;
+        /**
+         * Until the data node has started its daemon threads. It has done the version handshake
+         * with the name node by then, but registers with it asynchronously afterwards, so this doesn't
+         * include the registration.
+         */
+        public final long dataNodeTime;
+        /**
+         * Includes the connection to the job tracker.
+         */
+        public final long taskTrackerTime;
+        public final long heapUsed;
+        public final long nonHeapUsed;
+        /**
+         * Disk measurements of the Hadoop directories on this node.
+         */
+        public final List<IOProbe.Result> ioProbes;
+
+        Node(String name, NodeRole role, long vmTime, long dataNodeTime, long taskTrackerTime, long[] memory, List<IOProbe.Result> ioProbes) {
+            this.name = name;
+            this.role = role;
+            this.vmTime = vmTime;
+            this.dataNodeTime = dataNodeTime;
+            this.taskTrackerTime = taskTrackerTime;
+            this.heapUsed = memory[0];
+            this.nonHeapUsed = memory[1];
+            this.ioProbes = ioProbes;
+        }
+
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /*package*/ Node setTotalTime(long totalTime) {
+            this.totalTime = totalTime;
+            return this;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Measures the memory used by the Hadoop VM that runs this task.
+     */
+    static final class MeasureMemory implements Callable<long[],IOException> {
+        public long[] call() {
+            MemoryMXBean m = ManagementFactory.getMemoryMXBean();
+            return new long[]{m.getHeapMemoryUsage().getUsed(), m.getNonHeapMemoryUsage().getUsed()};
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+}
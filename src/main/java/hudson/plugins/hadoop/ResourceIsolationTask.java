@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Callable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lowers the CPU and I/O priority of the Hadoop VM that runs this task on Linux,
+ * so that Hadoop daemons (for example while re-replicating blocks) don't slow down builds and Jenkins itself.
+ *
+ * <p>
+ * Every thread of the VM gets reniced and ioniced. Threads started later inherit those from the thread that starts them.
+ * If a cgroup v2 directory delegated to Jenkins is given, the VM is also moved into a child cgroup of its own,
+ * named after its class and pid, with its CPU weight, I/O weight, and memory.high set.
+ *
+ * <p>
+ * This is all best effort. Whatever fails (no permission, missing commands, not Linux) is only reported.
+ */
+class ResourceIsolationTask implements Callable<String,IOException> {
+    /**
+     * How much of the machine each kind of Hadoop VM is entitled to.
+     * Weights are relative to the default of 100 that builds and Jenkins get.
+     */
+    enum ResourceClass {
+        /**
+         * Name node and job tracker. These have to stay responsive for the whole cluster.
+         */
+        MASTER(5,4,50,50),
+        /**
+         * Data node, and possibly task tracker.
+         */
+        STORAGE(10,7,25,25),
+        /**
+         * Task tracker only.
+         */
+        COMPUTE(10,7,25,50);
+
+        final int nice, ioniceLevel, cpuWeight, ioWeight;
+
+        ResourceClass(int nice, int ioniceLevel, int cpuWeight, int ioWeight) {
+            this.nice = nice;
+            this.ioniceLevel = ioniceLevel;
+            this.cpuWeight = cpuWeight;
+            this.ioWeight = ioWeight;
+        }
+
+        static ResourceClass of(NodeRole role) {
+            return role.storage ? STORAGE : COMPUTE;
+        }
+    }
+
+    private final ResourceClass resourceClass;
+    /**
+     * cgroup v2 directory under which the per-VM cgroups are created, or null to not use cgroups.
+     */
+    private final String cgroupRoot;
+
+    ResourceIsolationTask(ResourceClass resourceClass, String cgroupRoot) {
+        this.resourceClass = resourceClass;
+        this.cgroupRoot = cgroupRoot;
+    }
+
+    /**
+     * @return
+     *      what was done, for the log.
+     */
+    public String call() throws IOException {
+        File self = new File("/proc/self");
+        if(!self.exists())
+            return "Resource isolation of Hadoop is only available on Linux";
+        String pid = self.getCanonicalFile().getName();
+        StringBuilder r = new StringBuilder("Resource isolation of Hadoop VM "+pid+" as "+resourceClass+":");
+
+        List<String> tids = new ArrayList<String>();
+        File[] tasks = new File(self,"task").listFiles();
+        if(tasks!=null)
+            for (File t : tasks)
+                tids.add(t.getName());
+
+        List<String> renice = new ArrayList<String>();
+        renice.add("renice");
+        renice.add(String.valueOf(resourceClass.nice));
+        renice.add("-p");
+        renice.addAll(tids);
+        r.append(" nice ").append(exec(renice) ? resourceClass.nice : "failed");
+
+        boolean ionice = true;
+        for (String tid : tids)
+            ionice &= exec(Arrays.asList("ionice","-c","2","-n",String.valueOf(resourceClass.ioniceLevel),"-p",tid));
+        r.append(", ionice ").append(ionice ? "best-effort/"+resourceClass.ioniceLevel : "failed");
+
+        if(cgroupRoot!=null) {
+            File root = new File(cgroupRoot);
+            // one cgroup per VM, as memory.high is sized for this VM alone, and several VMs may share the host
+            File g = new File(root,"hadoop-"+resourceClass.name().toLowerCase()+"-"+pid);
+            try {
+                if(!new File(root,"cgroup.controllers").exists())
+                    throw new IOException(root+" isn't a cgroup v2 directory");
+                removeStaleGroups(root);
+                enableController(root,"cpu",true);
+                enableController(root,"memory",true);
+                enableController(root,"io",false);
+                g.mkdirs();
+                write(new File(g,"cpu.weight"),String.valueOf(resourceClass.cpuWeight));
+                writeIfPresent(new File(g,"io.weight"),"default "+resourceClass.ioWeight);
+                // leave room for the non-heap memory, but reclaim hard beyond that
+                write(new File(g,"memory.high"),String.valueOf(Runtime.getRuntime().maxMemory()*2));
+                write(new File(g,"cgroup.procs"),pid);
+                r.append(", cgroup ").append(g);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to put the Hadoop VM into a cgroup under "+root,e);
+                r.append(", cgroup failed: ").append(e.getMessage());
+            }
+        }
+        return r.toString();
+    }
+
+    private static boolean exec(List<String> cmd) {
+        try {
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            Process p = pb.start();
+            p.getOutputStream().close();
+            while(p.getInputStream().read()>=0)
+                ;   // drain
+            return p.waitFor()==0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Makes the given controller available to the child cgroups, unless whoever delegated the directory to us
+     * already has.
+     *
+     * @param required
+     *      if false, a controller that the kernel doesn't offer here is skipped.
+     */
+    private static void enableController(File root, String controller, boolean required) throws IOException {
+        File control = new File(root,"cgroup.subtree_control");
+        if(Arrays.asList(read(control).split("\\s+")).contains(controller))
+            return;
+        if(!Arrays.asList(read(new File(root,"cgroup.controllers")).split("\\s+")).contains(controller)) {
+            if(required)
+                throw new IOException("The "+controller+" controller isn't delegated to "+root);
+            return;
+        }
+        try {
+            write(control,"+"+controller);
+        } catch (IOException e) {
+            // most likely because of the "no internal processes" rule
+            throw new IOException("Failed to enable the "+controller+" controller in "+root
+                    +". A cgroup that has processes of its own can't enable controllers for its children: "+e.getMessage());
+        }
+    }
+
+    /**
+     * Removes the cgroups of Hadoop VMs that have exited, which the kernel doesn't do by itself.
+     */
+    private static void removeStaleGroups(File root) throws IOException {
+        File[] groups = root.listFiles();
+        if(groups==null)    return;
+        for (File g : groups) {
+            File procs = new File(g,"cgroup.procs");
+            if(g.getName().startsWith("hadoop-") && procs.exists() && read(procs).length()==0)
+                g.delete();     // rmdir. fails harmlessly if the cgroup got a process in the mean time
+        }
+    }
+
+    /**
+     * The io controller may not be available, depending on the I/O scheduler.
+     */
+    private static void writeIfPresent(File f, String value) throws IOException {
+        if(f.exists())
+            write(f,value);
+    }
+
+    private static void write(File f, String value) throws IOException {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(value.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String read(File f) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f),"US-ASCII"));
+        try {
+            StringBuilder buf = new StringBuilder();
+            String line;
+            while((line=in.readLine())!=null)
+                buf.append(line).append('\n');
+            return buf.toString().trim();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(ResourceIsolationTask.class.getName());
+}
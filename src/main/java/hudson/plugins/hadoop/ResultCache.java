@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Results of MapReduce jobs run by {@link MapReduceBuilder}, kept in HDFS so that running the same job
+ * against the same input again doesn't have to recompute them.
+ *
+ * <p>
+ * A result is keyed by the digest of the job jar, the main class, the arguments (which carry the job configuration),
+ * and the length and the modification time of every input file, as the name node reports them.
+ * Each result lives in {@code /jenkins/mrcache/<key>}. When the total size exceeds
+ * {@link HadoopConfiguration#resultCacheMB}, the least recently used results that no running build is using
+ * are deleted.
+ */
+public final class ResultCache {
+    private transient XmlFile file;
+
+    /**
+     * Key to the cached result. Only results of jobs that completed successfully are here.
+     */
+    private final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+    /**
+     * Number of running builds that are using each result. These aren't evicted.
+     */
+    private transient Map<String,Integer> inUse = new HashMap<String,Integer>();
+
+    public static final class Entry {
+        public final long bytes;
+        private long lastUsed;
+
+        Entry(long bytes) {
+            this.bytes = bytes;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /*package*/ static ResultCache load(File f) {
+        XmlFile xml = new XmlFile(Hudson.XSTREAM,f);
+        ResultCache cache = new ResultCache();
+        if(xml.exists()) {
+            try {
+                xml.unmarshal(cache);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load "+f+". Starting from scratch",e);
+            }
+        }
+        cache.file = xml;
+        return cache;
+    }
+
+    /**
+     * HDFS directory of the result of the given key.
+     */
+    public static String getPath(String key) {
+        return ROOT+key;
+    }
+
+    /**
+     * Computes the cache key of a job.
+     *
+     * @param jarDigest
+     *      Digest of the contents of the job jar.
+     * @param inputs
+     *      HDFS files or directories the job reads.
+     */
+    public static String computeKey(FileSystem fs, String jarDigest, String mainClass, String args, List<String> inputs) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            update(md,jarDigest);
+            update(md,mainClass);
+            update(md,args);
+            for (String input : inputs) {
+                update(md,input);
+                FileStatus[] s = fs.globStatus(new Path(input));
+                if(s==null || s.length==0)
+                    throw new IOException("No such input: "+input);
+                for (FileStatus st : s)
+                    digest(fs,st,md);
+            }
+            return Util.toHexString(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void digest(FileSystem fs, FileStatus s, MessageDigest md) throws IOException {
+        if(s.isDir()) {
+            FileStatus[] children = fs.listStatus(s.getPath());
+            if(children==null)  return;
+            // the order of the listing isn't something we should depend on
+            Arrays.sort(children,new Comparator<FileStatus>() {
+                public int compare(FileStatus a, FileStatus b) {
+                    return a.getPath().compareTo(b.getPath());
+                }
+            });
+            for (FileStatus c : children)
+                digest(fs,c,md);
+        } else {
+            update(md,s.getPath().toUri().getPath()+' '+s.getLen()+' '+s.getModificationTime());
+        }
+    }
+
+    private static void update(MessageDigest md, String s) {
+        try {
+            md.update(Util.fixNull(s).getBytes("UTF-8"));
+            md.update((byte)0);
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Checks if there's a result for the given key, and if so, marks it as recently used and as in use,
+     * so that it won't be evicted until {@link #release(String)} is called.
+     */
+    public boolean acquire(FileSystem fs, String key) throws IOException {
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if(e==null)
+                return false;
+            e.lastUsed = System.currentTimeMillis();
+            if(fs.exists(new Path(getPath(key)))) {
+                inUse.put(key,getUseCount(key)+1);
+            } else {
+                // deleted behind our back
+                entries.remove(key);
+                e = null;
+            }
+            save();
+            return e!=null;
+        }
+    }
+
+    /**
+     * Releases the result acquired by {@link #acquire(FileSystem, String)} or {@link #add(FileSystem, String, Path, long)}.
+     */
+    public synchronized void release(String key) {
+        int n = getUseCount(key)-1;
+        if(n>0) inUse.put(key,n);
+        else    inUse.remove(key);
+    }
+
+    private int getUseCount(String key) {
+        Integer n = inUse.get(key);
+        return n!=null ? n : 0;
+    }
+
+    /**
+     * Moves the result that a job has just written into the cache, and evicts old results that aren't in use
+     * to stay within the budget.
+     *
+     * <p>
+     * If another build has already put the result of the same key into the cache in the mean time, that one is kept
+     * and the given result is deleted. Either way, the cached result is acquired on return.
+     *
+     * @param result
+     *      Directory the job has written its output to. Must not be in the cache already.
+     */
+    public void add(FileSystem fs, String key, Path result, long budget) throws IOException {
+        Path dst = new Path(getPath(key));
+        // HDFS would move the result into an existing directory instead of failing, so check and move under the lock
+        synchronized (this) {
+            if(fs.exists(dst)) {
+                fs.delete(result,true);
+            } else {
+                fs.mkdirs(dst.getParent());
+                if(!fs.rename(result,dst))
+                    throw new IOException("Failed to move "+result+" to "+dst);
+            }
+            long bytes = fs.getContentSummary(dst).getLength();
+            entries.put(key,new Entry(bytes));
+            inUse.put(key,getUseCount(key)+1);
+
+            List<Map.Entry<String,Entry>> lru = new ArrayList<Map.Entry<String,Entry>>(entries.entrySet());
+            Collections.sort(lru,new Comparator<Map.Entry<String,Entry>>() {
+                public int compare(Map.Entry<String,Entry> a, Map.Entry<String,Entry> b) {
+                    long x=a.getValue().lastUsed, y=b.getValue().lastUsed;
+                    return x<y ? -1 : x>y ? 1 : 0;
+                }
+            });
+            long total = getBytes();
+            for (Map.Entry<String,Entry> e : lru) {
+                if(total<=budget)   break;
+                String k = e.getKey();
+                if(inUse.containsKey(k))    continue;   // a running build is reading it, including the one just added
+                total -= e.getValue().bytes;
+                entries.remove(k);
+                // delete before releasing the lock, so that nobody puts the same key back in the mean time
+                LOGGER.fine("Evicting "+getPath(k)+" from the MapReduce result cache");
+                fs.delete(new Path(getPath(k)),true);
+            }
+            save();
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Total size of the cached results.
+     */
+    public synchronized long getBytes() {
+        long total = 0;
+        for (Entry e : entries.values())
+            total += e.bytes;
+        return total;
+    }
+
+    /**
+     * Human readable {@link #getBytes()}.
+     */
+    public String getBytesText() {
+        return UsageIndex.toHumanReadable(getBytes());
+    }
+
+    private synchronized void save() {
+        if(file==null)  return;
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save "+file,e);
+        }
+    }
+
+    /**
+     * HDFS directory that holds the cached results.
+     */
+    public static String ROOT = "/jenkins/mrcache/";
+
+    private static final Logger LOGGER = Logger.getLogger(ResultCache.class.getName());
+}
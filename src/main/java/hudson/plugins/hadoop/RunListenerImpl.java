@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AbstractBuild;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.util.DaemonThreadFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Moves console output into HDFS once a build is done, releases the MapReduce results it has used,
+ * and cleans up HDFS (console output and stashes) when builds are deleted.
+ */
+@Extension
+public class RunListenerImpl extends RunListener<AbstractBuild> {
+    public RunListenerImpl() {
+        super(AbstractBuild.class);
+    }
+
+    @Override
+    public void onCompleted(AbstractBuild r, TaskListener listener) {
+        // let ResultCache evict the MapReduce results that this build has been using
+        for (MapReduceBuilder.OutputAction a : (List<MapReduceBuilder.OutputAction>)r.getActions(MapReduceBuilder.OutputAction.class))
+            PluginImpl.get().getResultCache().release(a.key);
+    }
+
+    @Override
+    public void onFinalized(final AbstractBuild r) {
+        final HDFSConsoleLogProperty p = (HDFSConsoleLogProperty)r.getParent().getProperty(HDFSConsoleLogProperty.class);
+        if(p==null)     return;
+
+        // compressing a big log takes a while, so don't hold on to the executor while doing so
+        SPILLER.submit(new Runnable() {
+            public void run() {
+                spill(r,p);
+            }
+        });
+    }
+
+    private void spill(AbstractBuild r, HDFSConsoleLogProperty p) {
+        try {
+            PluginImpl plugin = PluginImpl.get();
+            if(plugin.getHdfsUrl()==null)
+                return;     // Hadoop isn't running
+
+            String dir = PluginImpl.getHdfsPath(r)+"/console";
+            File log = r.getLogFile();
+            FileSystem fs = plugin.createFileSystem();
+            try {
+                FileInputStream in = new FileInputStream(log);
+                try {
+                    new ChunkedLog(fs,new Path(dir)).write(in);
+                } finally {
+                    in.close();
+                }
+                plugin.getUsage().record(r, fs, dir);
+            } finally {
+                fs.close();
+            }
+
+            r.addAction(new HDFSConsoleLogAction(dir));
+            r.save();
+
+            if(!p.keepLocalCopy) {
+                PrintStream out = new PrintStream(new FileOutputStream(log));
+                out.println("The console output of this build has been moved to HDFS "+dir+".");
+                out.println("See \"Console Output (HDFS)\" of this build.");
+                out.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to move the console output of "+r+" to HDFS",e);
+        }
+    }
+
+    @Override
+    public void onDeleted(AbstractBuild r) {
+        if(r.getAction(HDFSConsoleLogAction.class)==null && r.getAction(HDFSStashAction.class)==null)
+            return;     // nothing in HDFS
+
+        try {
+            FileSystem fs = PluginImpl.get().createFileSystem();
+            try {
+                String dir = PluginImpl.getHdfsPath(r);
+                fs.delete(new Path(dir),true);
+                PluginImpl.get().getUsage().remove(r.getParent(),dir);
+            } finally {
+                fs.close();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete the HDFS data of "+r,e);
+        }
+    }
+
+    /**
+     * Moves logs one at a time, so that a burst of completed builds doesn't hammer the disk and HDFS.
+     */
+    private static final ExecutorService SPILLER = Executors.newSingleThreadExecutor(new DaemonThreadFactory());
+
+    private static final Logger LOGGER = Logger.getLogger(RunListenerImpl.class.getName());
+}
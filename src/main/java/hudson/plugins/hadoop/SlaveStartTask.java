@@ -36,31 +36,93 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 
 /**
+ * Starts the Hadoop daemons on a node, according to its {@link NodeRole}.
+ *
  * @author Kohsuke Kawaguchi
 */
-class SlaveStartTask implements Callable<Void,IOException> {
+class SlaveStartTask implements Callable<ProvisioningStats.Node,IOException> {
     private final FilePath rootPath;
     private final TaskListener listener;
     private final String hdfsUrl;
     private final String jobTrackerAddress;
     private final String address;
+    private final String nodeName;
+    private final NodeRole role;
+    private final boolean startTaskTracker;
+    private final long balanceBandwidth;
+    private final ResourceIsolationTask isolation;
+
+    /**
+     * Hadoop VM started in this JVM, if any.
+     * {@link TaskTrackerControlTask} uses this to start/stop the task tracker later.
+     */
+    private static Channel hadoopVM;
 
-    public SlaveStartTask(Computer c, TaskListener listener, String hdfsUrl, String address) throws MalformedURLException {
+    /**
+     * @param startTaskTracker
+     *      If false, the task tracker isn't started now even if the node has the compute role.
+     *      See {@link TaskTrackerScaler}.
+     */
+    public SlaveStartTask(Computer c, TaskListener listener, String hdfsUrl, String address, boolean startTaskTracker) throws MalformedURLException {
         this.rootPath = c.getNode().getRootPath();
         this.listener = listener;
         this.hdfsUrl = hdfsUrl;
         this.jobTrackerAddress = PluginImpl.get().getJobTrackerAddress();
         this.address = address;
+        this.nodeName = c.getDisplayName();
+        this.role = PluginImpl.get().getConfiguration().getRole(c.getNode());
+        this.startTaskTracker = startTaskTracker;
+        this.balanceBandwidth = PluginImpl.get().getConfiguration().balancerBandwidth*1024L*1024;
+        this.isolation = role==NodeRole.NONE ? null : PluginImpl.get().getConfiguration().createIsolationTask(ResourceIsolationTask.ResourceClass.of(role));
     }
 
-    public Void call() throws IOException {
-        try {
-            Channel channel = PluginImpl.createHadoopVM(new File(rootPath.getRemote()), listener);
-            channel.call(new DataNodeStartTask(hdfsUrl, rootPath.getRemote(), address));
-            channel.call(new TaskTrackerStartTask(hdfsUrl, rootPath.getRemote(), address, jobTrackerAddress));
+    public NodeRole getRole() {
+        return role;
+    }
+
+    /**
+     * @return
+     *      measurements of the startup, or null if nothing was started.
+     */
+    public ProvisioningStats.Node call() throws IOException {
+        if(role==NodeRole.NONE)
             return null;
+        try {
+            long vmTime, dataNodeTime=-1, taskTrackerTime=-1;
+
+            long start = System.currentTimeMillis();
+            Channel channel = getHadoopVM(new File(rootPath.getRemote()), listener);
+            vmTime = System.currentTimeMillis()-start;
+            PluginImpl.isolate(channel, isolation, listener);
+
+            if(role.storage) {
+                start = System.currentTimeMillis();
+                channel.call(new DataNodeStartTask(hdfsUrl, rootPath.getRemote(), address, balanceBandwidth));
+                dataNodeTime = System.currentTimeMillis()-start;
+            }
+            if(role.compute && startTaskTracker && jobTrackerAddress!=null) {
+                start = System.currentTimeMillis();
+                channel.call(new TaskTrackerStartTask(hdfsUrl, rootPath.getRemote(), address, jobTrackerAddress));
+                taskTrackerTime = System.currentTimeMillis()-start;
+            }
+
+            return new ProvisioningStats.Node(nodeName, role, vmTime, dataNodeTime, taskTrackerTime,
+                    channel.call(new ProvisioningStats.MeasureMemory()), channel.call(new IOProbe.GetResults()));
         } catch (InterruptedException e) {
             throw new IOException2(e);
         }
     }
+
+    private static synchronized Channel getHadoopVM(File rootDir, TaskListener listener) throws IOException, InterruptedException {
+        if(hadoopVM==null)
+            hadoopVM = PluginImpl.createHadoopVM(rootDir, listener);
+        return hadoopVM;
+    }
+
+    /**
+     * Returns the Hadoop VM started in this JVM, or null if none.
+     */
+    static synchronized Channel getHadoopVM() {
+        return hadoopVM;
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+
+/**
+ * Stashes files in the workspace into HDFS, for {@link UnstashFromHDFSBuilder} in a downstream build to pick up.
+ *
+ * <p>
+ * The files are packed on the node that runs the build, so the first replica of the stash lands on its data node,
+ * and the transfer doesn't go through the master.
+ *
+ * @see HDFSStashAction
+ */
+public class StashToHDFSBuilder extends HDFSBuilder {
+    public final String name;
+    /**
+     * Ant-style pattern of the workspace files to stash.
+     */
+    public final String includes;
+
+    @DataBoundConstructor
+    public StashToHDFSBuilder(String name, String includes) {
+        this.name = name;
+        this.includes = includes;
+    }
+
+    @Override
+    protected AbstractBuild<?,?> getQuotaOwner(AbstractBuild<?,?> build) {
+        // the stash is kept with the root build of the pipeline
+        return HDFSStashAction.getRoot(build);
+    }
+
+    @Override
+    protected boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException {
+        PluginImpl p = PluginImpl.get();
+        EnvVars env = build.getEnvironment(listener);
+        String n = env.expand(name);
+        if(!HDFSStashAction.isValidName(n)) {
+            listener.error("Invalid stash name: "+n);
+            return false;
+        }
+
+        AbstractBuild<?,?> rootBuild = HDFSStashAction.getRoot(build);
+        String dest = HDFSStashAction.getPath(rootBuild,n);
+        // PackFile deletes what it has written if it fails, so there's nothing to clean up in that case
+        PackFile.pack(build.getWorkspace(), env.expand(includes), hdfsUrl, dest, listener);
+        // only record the stash once it's complete, so that unstash never finds a name without a file
+        HDFSStashAction.add(rootBuild,n);
+        p.getUsage().record(rootBuild, dest);
+        return true;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Stash files into HDFS";
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.remoting.Callable;
+import hudson.remoting.Channel;
+import hudson.util.IOException2;
+
+import java.io.IOException;
+
+/**
+ * Starts or stops the task tracker in the Hadoop VM that {@link SlaveStartTask} has launched on a node.
+ *
+ * @see TaskTrackerScaler
+ */
+class TaskTrackerControlTask implements Callable<Boolean,IOException> {
+    /**
+     * Task to start the task tracker, or null to stop it.
+     */
+    private final TaskTrackerStartTask start;
+
+    TaskTrackerControlTask(TaskTrackerStartTask start) {
+        this.start = start;
+    }
+
+    /**
+     * @return
+     *      false if there's no Hadoop VM on this node.
+     */
+    public Boolean call() throws IOException {
+        Channel vm = SlaveStartTask.getHadoopVM();
+        if(vm==null)
+            return false;
+        try {
+            if(start!=null)
+                vm.call(start);
+            else
+                vm.call(new TaskTrackerStartTask.StopTask());
+            return true;
+        } catch (InterruptedException e) {
+            throw new IOException2(e);
+        }
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Computer;
+import hudson.model.Hudson;
+import hudson.model.TaskListener;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.net.NetUtils;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In the {@linkplain HadoopConfiguration#lazyStart lazy mode}, starts task trackers when the job tracker
+ * has jobs to run, and shuts them down after they've been idle for a while, to give the memory back to builds.
+ *
+ * <p>
+ * Talking to the job tracker and the slaves can take a while, so this runs on its own thread rather than
+ * the timer thread that other periodic work shares.
+ */
+@Extension
+public class TaskTrackerScaler extends AsyncPeriodicWork {
+    /**
+     * Names of the computers where we've started task trackers.
+     */
+    private final Set<String> running = new HashSet<String>();
+    private long lastBusy = System.currentTimeMillis();
+
+    public TaskTrackerScaler() {
+        super("Hadoop task tracker scaling");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return 15*1000;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        PluginImpl p = PluginImpl.get();
+        HadoopConfiguration config = p.getConfiguration();
+        if(!config.lazyStart || !p.isStarted())
+            return;
+        String jobTracker = p.getJobTrackerAddress();
+        if(jobTracker==null)
+            return;
+
+        // computers that went offline took their task trackers with them
+        for (Iterator<String> itr = running.iterator(); itr.hasNext();) {
+            Computer c = Hudson.getInstance().getComputer(itr.next());
+            if(c==null || !c.isOnline())
+                itr.remove();
+        }
+
+        long now = System.currentTimeMillis();
+        if(hasPendingJobs(jobTracker)) {
+            lastBusy = now;
+            for (Computer c : Hudson.getInstance().getComputers()) {
+                if(running.contains(c.getName()) || !c.isOnline() || c.getNode()==null)
+                    continue;
+                if(!config.getRole(c.getNode()).compute)
+                    continue;
+                try {
+                    if(p.setTaskTracker(c,true)) {
+                        LOGGER.info("Started a task tracker on "+c.getDisplayName());
+                        running.add(c.getName());
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to start a task tracker on "+c.getDisplayName(),e);
+                }
+            }
+        } else
+        if(config.taskTrackerIdleMinutes>0 && now-lastBusy>config.taskTrackerIdleMinutes*60L*1000) {
+            for (Iterator<String> itr = running.iterator(); itr.hasNext();) {
+                Computer c = Hudson.getInstance().getComputer(itr.next());
+                try {
+                    p.setTaskTracker(c,false);
+                    LOGGER.info("Stopped the idle task tracker on "+c.getDisplayName());
+                    itr.remove();
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to stop the task tracker on "+c.getDisplayName(),e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the job tracker has jobs that are waiting or running.
+     */
+    private boolean hasPendingJobs(String jobTracker) throws IOException {
+        JobClient jc = new JobClient(NetUtils.createSocketAddr(jobTracker),new JobConf());
+        try {
+            return jc.jobsToComplete().length>0;
+        } finally {
+            jc.close();
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(TaskTrackerScaler.class.getName());
+}
@@ -24,6 +24,7 @@
 
 package hudson.plugins.hadoop;
 
+import hudson.remoting.Callable;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.TaskTracker;
 
@@ -31,7 +32,7 @@ import java.io.File;
 import java.io.IOException;
 
 /**
- * Starts a {@link TaskTracker}.
+ * Starts a {@link TaskTracker}, unless it's already running in this JVM.
  */
 class TaskTrackerStartTask extends SlaveTask {
     private final String jobTrackerAddress;
@@ -42,20 +43,52 @@ class TaskTrackerStartTask extends SlaveTask {
     }
 
     public Void call() throws IOException {
-        System.out.println("Starting data node");
+        System.out.println("Starting task tracker");
 
         JobConf conf = new JobConf();
         conf.set("fs.default.name",hdfsUrl);
         conf.set("mapred.job.tracker",jobTrackerAddress);
         conf.set("mapred.task.tracker.http.address","0.0.0.0:0");
         conf.set("mapred.task.tracker.report.address","0.0.0.0:0");
-        conf.set("mapred.local.dir",new File(new File(rootPath),"hadoop/task-tracker").getAbsolutePath());
+        File localDir = new File(new File(rootPath),"hadoop/task-tracker");
+        conf.set("mapred.local.dir",localDir.getAbsolutePath());
         conf.set("slave.host.name", slaveHostName);
+        IOProbe.measure(localDir).tuneTaskTracker(conf);
 
-        new Thread(new TaskTracker(conf)).start();
+        start(conf);
 
         return null;
     }
 
+    /**
+     * Task tracker running in this JVM, if any.
+     */
+    private static TaskTracker tracker;
+
+    private static synchronized void start(JobConf conf) throws IOException {
+        if(tracker!=null)
+            return;     // already running
+        tracker = new TaskTracker(conf);
+        new Thread(tracker).start();
+    }
+
+    /**
+     * Shuts down the task tracker running in this JVM, if any.
+     */
+    static final class StopTask implements Callable<Void,IOException> {
+        public Void call() throws IOException {
+            synchronized (TaskTrackerStartTask.class) {
+                if(tracker!=null) {
+                    System.out.println("Stopping task tracker");
+                    tracker.shutdown();
+                    tracker = null;
+                }
+            }
+            return null;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     private static final long serialVersionUID = 1L;
 }
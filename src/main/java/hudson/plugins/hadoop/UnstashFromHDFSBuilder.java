@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import static hudson.Util.fixNull;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.model.BuildListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.Builder;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.io.IOException;
+
+/**
+ * Extracts the files stashed by {@link StashToHDFSBuilder} in this build or one of its upstream builds.
+ *
+ * <p>
+ * Blocks of the stash that the data node of this node has are read straight from the disk,
+ * and the rest from the nearest data node that has them.
+ */
+public class UnstashFromHDFSBuilder extends HDFSBuilder {
+    public final String name;
+    /**
+     * Workspace-relative directory to extract into. Empty for the workspace itself.
+     */
+    public final String target;
+
+    @DataBoundConstructor
+    public UnstashFromHDFSBuilder(String name, String target) {
+        this.name = name;
+        this.target = target;
+    }
+
+    @Override
+    protected boolean needsNodeRoot() {
+        return true;
+    }
+
+    @Override
+    protected boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener, String hdfsUrl, FilePath root) throws InterruptedException, IOException {
+        EnvVars env = build.getEnvironment(listener);
+        String n = env.expand(name);
+        AbstractBuild<?,?> rootBuild = HDFSStashAction.getRoot(build);
+        HDFSStashAction a = rootBuild.getAction(HDFSStashAction.class);
+        if(a==null || !a.getNames().contains(n)) {
+            listener.error("No such stash: "+n+". It may have expired after "+PluginImpl.get().getConfiguration().stashHours+" hours");
+            return false;
+        }
+        FilePath dest = build.getWorkspace().child(env.expand(fixNull(target)));
+        PackFile.unpack(hdfsUrl, HDFSStashAction.getPath(rootBuild,n), dest, root, listener);
+        return true;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends BuildStepDescriptor<Builder> {
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Unstash files from HDFS";
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.XmlFile;
+import hudson.model.Hudson;
+import hudson.model.Job;
+import hudson.model.Run;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of how much HDFS space and how many files each job uses.
+ *
+ * <p>
+ * Rather than running a recursive du over the whole namespace, we record what the plugin writes
+ * on behalf of builds as it happens, and {@link UsageReconciler} periodically refreshes just those paths,
+ * to account for what's changed or been deleted behind our back.
+ */
+public final class UsageIndex {
+    private transient XmlFile file;
+
+    /**
+     * Job full name to HDFS path to its usage.
+     */
+    private final Map<String,Map<String,Entry>> jobs = new HashMap<String,Map<String,Entry>>();
+
+    /**
+     * Usage of one HDFS path written by a build.
+     */
+    public static final class Entry {
+        public final int build;
+        private long bytes;
+        private long files;
+
+        Entry(int build, long bytes, long files) {
+            this.build = build;
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getFiles() {
+            return files;
+        }
+    }
+
+    /**
+     * Total usage of a job.
+     */
+    public static final class JobUsage {
+        public final String name;
+        public final long bytes;
+        public final long files;
+
+        JobUsage(String name, long bytes, long files) {
+            this.name = name;
+            this.bytes = bytes;
+            this.files = files;
+        }
+
+        public Job getJob() {
+            return (Job)Hudson.getInstance().getItemByFullName(name);
+        }
+
+        /**
+         * Human readable size.
+         */
+        public String getSize() {
+            return toHumanReadable(bytes);
+        }
+
+        /**
+         * Human readable quota, or null if there's no quota.
+         */
+        public String getQuota() {
+            Job j = getJob();
+            HDFSQuotaProperty q = j!=null ? (HDFSQuotaProperty)j.getProperty(HDFSQuotaProperty.class) : null;
+            return q!=null ? toHumanReadable(q.getQuotaBytes()) : null;
+        }
+    }
+
+    /**
+     * Loads the index from the given file, if it exists.
+     */
+    /*package*/ static UsageIndex load(File f) {
+        XmlFile xml = new XmlFile(Hudson.XSTREAM,f);
+        UsageIndex index = new UsageIndex();
+        if(xml.exists()) {
+            try {
+                xml.unmarshal(index);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load "+f+". Starting from scratch",e);
+            }
+        }
+        index.file = xml;
+        return index;
+    }
+
+    /**
+     * Records that a build has written the given HDFS path.
+     *
+     * @param path
+     *      File or directory. Anything previously recorded for this path is replaced.
+     */
+    public void record(Run<?,?> build, String path, long bytes, long files) {
+        synchronized (this) {
+            String job = build.getParent().getFullName();
+            Map<String,Entry> paths = jobs.get(job);
+            if(paths==null)
+                jobs.put(job,paths=new HashMap<String,Entry>());
+            paths.put(path,new Entry(build.getNumber(),bytes,files));
+        }
+        save();
+    }
+
+    /**
+     * Records a path written by a build, by asking the name node about its size.
+     */
+    public void record(Run<?,?> build, FileSystem fs, String path) throws IOException {
+        ContentSummary cs = fs.getContentSummary(new Path(path));
+        record(build, path, cs.getLength(), cs.getFileCount());
+    }
+
+    /**
+     * Records a path written by a build, by asking the name node about its size.
+     */
+    public void record(Run<?,?> build, String path) throws IOException {
+        FileSystem fs = PluginImpl.get().createFileSystem();
+        try {
+            record(build, fs, path);
+        } finally {
+            fs.close();
+        }
+    }
+
+    /**
+     * Forgets the paths of the given job at or below the given directory, after they have been deleted.
+     */
+    public void remove(Job<?,?> job, String dir) {
+        synchronized (this) {
+            Map<String,Entry> paths = jobs.get(job.getFullName());
+            if(paths==null)     return;
+            for (Iterator<String> itr = paths.keySet().iterator(); itr.hasNext();) {
+                String path = itr.next();
+                if(path.equals(dir) || path.startsWith(dir+'/'))
+                    itr.remove();
+            }
+        }
+        save();
+    }
+
+    /**
+     * Total number of bytes used by the given job.
+     */
+    public synchronized long getBytes(Job<?,?> job) {
+        long total = 0;
+        Map<String,Entry> paths = jobs.get(job.getFullName());
+        if(paths!=null)
+            for (Entry e : paths.values())
+                total += e.bytes;
+        return total;
+    }
+
+    /**
+     * Returns the usage of all jobs, the biggest first.
+     */
+    public synchronized List<JobUsage> getJobs() {
+        List<JobUsage> r = new ArrayList<JobUsage>();
+        for (Map.Entry<String,Map<String,Entry>> j : jobs.entrySet()) {
+            long bytes=0, files=0;
+            for (Entry e : j.getValue().values()) {
+                bytes += e.bytes;
+                files += e.files;
+            }
+            r.add(new JobUsage(j.getKey(),bytes,files));
+        }
+        Collections.sort(r,new Comparator<JobUsage>() {
+            public int compare(JobUsage a, JobUsage b) {
+                return a.bytes<b.bytes ? 1 : a.bytes>b.bytes ? -1 : 0;
+            }
+        });
+        return r;
+    }
+
+    /**
+     * Returns the recorded paths of every job, by the job full name, with the numbers of the builds that wrote them.
+     */
+    /*package*/ synchronized Map<String,Map<String,Integer>> getPaths() {
+        Map<String,Map<String,Integer>> r = new HashMap<String,Map<String,Integer>>();
+        for (Map.Entry<String,Map<String,Entry>> j : jobs.entrySet()) {
+            Map<String,Integer> paths = new HashMap<String,Integer>();
+            for (Map.Entry<String,Entry> e : j.getValue().entrySet())
+                paths.put(e.getKey(),e.getValue().build);
+            r.put(j.getKey(),paths);
+        }
+        return r;
+    }
+
+    /**
+     * Re-measures every recorded path, and drops the ones that no longer exist.
+     */
+    /*package*/ void reconcile(FileSystem fs) throws IOException {
+        Map<String,List<String>> snapshot = new HashMap<String,List<String>>();
+        synchronized (this) {
+            for (Map.Entry<String,Map<String,Entry>> j : jobs.entrySet())
+                snapshot.put(j.getKey(),new ArrayList<String>(j.getValue().keySet()));
+        }
+
+        // talk to the name node without holding the lock
+        for (Map.Entry<String,List<String>> j : snapshot.entrySet()) {
+            boolean jobExists = Hudson.getInstance().getItemByFullName(j.getKey())!=null;
+            for (String path : j.getValue()) {
+                ContentSummary cs = null;
+                if(jobExists) {
+                    try {
+                        cs = fs.getContentSummary(new Path(path));
+                    } catch (FileNotFoundException e) {
+                        // deleted
+                    }
+                }
+                synchronized (this) {
+                    Map<String,Entry> paths = jobs.get(j.getKey());
+                    Entry e = paths!=null ? paths.get(path) : null;
+                    if(e==null)     continue;
+                    if(cs==null) {
+                        paths.remove(path);
+                    } else {
+                        e.bytes = cs.getLength();
+                        e.files = cs.getFileCount();
+                    }
+                }
+            }
+        }
+
+        synchronized (this) {
+            for (Iterator<Map<String,Entry>> itr = jobs.values().iterator(); itr.hasNext();)
+                if(itr.next().isEmpty())
+                    itr.remove();
+        }
+        save();
+    }
+
+    private synchronized void save() {
+        if(file==null)  return;
+        try {
+            file.write(this);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save "+file,e);
+        }
+    }
+
+    /*package*/ static String toHumanReadable(long bytes) {
+        if(bytes<1024)
+            return bytes+" B";
+        String[] units = {"KB","MB","GB","TB","PB"};
+        double size = bytes;
+        int i=-1;
+        while(size>=1024 && i<units.length-1) {
+            size /= 1024;
+            i++;
+        }
+        return String.format("%.1f %s",size,units[i]);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(UsageIndex.class.getName());
+}
@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.IOException;
+
+/**
+ * Periodically brings {@link UsageIndex} up to date with what's actually in HDFS,
+ * such as files that were deleted or overwritten by MapReduce jobs, and deletes expired stashes.
+ *
+ * <p>
+ * This only asks the name node about the paths recorded in the index, and runs at a low thread priority.
+ */
+@Extension
+public class UsageReconciler extends AsyncPeriodicWork {
+    public UsageReconciler() {
+        super("HDFS usage reconciliation");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return RECURRENCE_PERIOD;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        PluginImpl p = PluginImpl.get();
+        if(p.getUsage()==null || !p.isStarted())
+            return;
+
+        Thread t = Thread.currentThread();
+        int priority = t.getPriority();
+        t.setPriority(Thread.MIN_PRIORITY);
+        try {
+            FileSystem fs = p.createFileSystem();
+            try {
+                HDFSStashAction.expire(p, fs, p.getConfiguration().stashHours*60L*60*1000);
+                p.getUsage().reconcile(fs);
+            } finally {
+                fs.close();
+            }
+        } finally {
+            t.setPriority(priority);
+        }
+    }
+
+    public static long RECURRENCE_PERIOD = Long.getLong(UsageReconciler.class.getName()+".recurrencePeriod",HOUR);
+}
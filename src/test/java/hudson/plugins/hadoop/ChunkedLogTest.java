@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Round trips of {@link ChunkedLog} on the local file system.
+ */
+public class ChunkedLogTest extends LocalFileSystemTestCase {
+    private ChunkedLog log;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        log = new ChunkedLog(fs,new Path(dir.getPath()));
+        ChunkedLog.CHUNK_LINES = 3;
+    }
+
+    public void testEmpty() throws Exception {
+        write("");
+        assertTrue(log.exists());
+        assertEquals(0,log.getLineCount());
+        assertEquals("",read(0,10));
+    }
+
+    public void testExactlyOneChunk() throws Exception {
+        write("a\nb\nc\n");
+        assertEquals(3,log.getLineCount());
+        assertEquals("a\nb\nc\n",read(0,10));
+        assertEquals("c\n",read(2,1));
+        assertEquals("",read(3,1));
+    }
+
+    public void testLastLineWithoutNewline() throws Exception {
+        write("a\nb\nc\nd");
+        assertEquals(4,log.getLineCount());
+        assertEquals("a\nb\nc\nd",read(0,10));
+        assertEquals("d",read(3,1));
+    }
+
+    public void testAcrossChunks() throws Exception {
+        String text = lines(0,10);
+        write(text);
+        assertEquals(10,log.getLineCount());
+        assertEquals(text,read(0,100));
+        assertEquals(lines(2,5),read(2,5));     // spans three chunks
+        assertEquals(lines(3,3),read(3,3));     // exactly one chunk
+        assertEquals(lines(8,2),read(8,100));   // past the end
+    }
+
+    /**
+     * Chunk and buffer boundaries fall in different places.
+     */
+    public void testLargerThanBuffer() throws Exception {
+        ChunkedLog.CHUNK_LINES = 1000;
+        String text = lines(0,20000);
+        write(text);
+        assertEquals(20000,log.getLineCount());
+        assertEquals(text,read(0,20000));
+        assertEquals(lines(999,1002),read(999,1002));
+        assertEquals(lines(12345,3000),read(12345,3000));
+    }
+
+    /**
+     * Lines longer than a chunk, like progress bars that only use '\r'.
+     */
+    public void testLongLines() throws Exception {
+        ChunkedLog.CHUNK_BYTES = 10;
+        String text = "short\n"+"0123456789012345678901234\n"+"x\n"+"0123456789\n"+"no newline at the end, either";
+        write(text);
+        assertEquals(5,log.getLineCount());
+        assertEquals(text,read(0,10));
+        assertEquals("0123456789012345678901234\n",read(1,1));
+        assertEquals("x\n0123456789\n",read(2,2));
+        assertEquals("no newline at the end, either",read(4,1));
+    }
+
+    private void write(String text) throws IOException {
+        log.write(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+    private String read(long start, long count) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        log.writeLines(start,count,out);
+        return out.toString("UTF-8");
+    }
+
+    private static String lines(int start, int count) {
+        StringBuilder buf = new StringBuilder();
+        for (int i=start; i<start+count; i++)
+            buf.append("line ").append(i).append('\n');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import junit.framework.TestCase;
+
+/**
+ * Normalization of {@link HadoopConfiguration#hdfsUrl}.
+ */
+public class HadoopConfigurationTest extends TestCase {
+    public void testNoExternalHdfs() {
+        assertNull(create(null).hdfsUrl);
+        assertNull(create("").hdfsUrl);
+        assertFalse(create("").isExternal());
+    }
+
+    public void testDefaultPort() {
+        assertEquals("hdfs://namenode:8020/",create("hdfs://namenode").hdfsUrl);
+        assertEquals("hdfs://namenode:8020/",create("hdfs://namenode/").hdfsUrl);
+    }
+
+    public void testExplicitPort() {
+        assertEquals("hdfs://namenode:9000/",create("hdfs://namenode:9000").hdfsUrl);
+        assertEquals("hdfs://namenode:9000/",create("hdfs://namenode:9000/").hdfsUrl);
+    }
+
+    private static HadoopConfiguration create(String hdfsUrl) {
+        return new HadoopConfiguration(null,null,hdfsUrl,null,true,false,30,false,10,1,null,0,false,null,0);
+    }
+}
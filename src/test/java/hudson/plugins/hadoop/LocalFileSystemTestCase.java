@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.plugins.hadoop;
+
+import hudson.Util;
+import junit.framework.TestCase;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+
+import java.io.File;
+
+/**
+ * Runs HDFS code against the local file system in a scratch directory.
+ *
+ * <p>
+ * Tests shrink the static tuning knobs to exercise the edge cases, so they are restored after each test
+ * regardless of which test changed them.
+ */
+public abstract class LocalFileSystemTestCase extends TestCase {
+    /**
+     * Scratch directory, deleted after each test.
+     */
+    protected File dir;
+    protected FileSystem fs;
+
+    private int chunkLines, chunkBytes;
+    private String cacheRoot;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        chunkLines = ChunkedLog.CHUNK_LINES;
+        chunkBytes = ChunkedLog.CHUNK_BYTES;
+        cacheRoot = ResultCache.ROOT;
+
+        dir = File.createTempFile("hadoop-test","");
+        dir.delete();
+        dir.mkdirs();
+        fs = FileSystem.getLocal(new Configuration());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ChunkedLog.CHUNK_LINES = chunkLines;
+        ChunkedLog.CHUNK_BYTES = chunkBytes;
+        ResultCache.ROOT = cacheRoot;
+
+        Util.deleteRecursive(dir);
+        super.tearDown();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import hudson.Util;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Round trips of {@link PackFile} on the local file system.
+ */
+public class PackFileTest extends LocalFileSystemTestCase {
+    private Path path;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        path = new Path(new File(dir,"test"+PackFile.EXTENSION).getPath());
+    }
+
+    public void testNoEntries() throws Exception {
+        new PackFile.Writer(fs,path).close();
+
+        PackFile pack = new PackFile(fs,path);
+        try {
+            assertTrue(pack.getEntries().isEmpty());
+            assertNull(pack.getEntry("foo"));
+            assertEquals(0,pack.extractTo(new File(dir,"out")));
+        } finally {
+            pack.close();
+        }
+    }
+
+    public void testRoundTrip() throws Exception {
+        PackFile.Writer w = new PackFile.Writer(fs,path);
+        add(w,"a.txt",1000L,"hello");
+        add(w,"sub/b.txt",2000L,"");
+        add(w,"sub/c.txt",3000L,"world");
+        w.close();
+
+        PackFile pack = new PackFile(fs,path);
+        try {
+            assertEquals(3,pack.getEntries().size());
+            assertEquals("hello",read(pack,"a.txt"));
+            assertEquals("",read(pack,"sub/b.txt"));
+            assertEquals("world",read(pack,"sub/c.txt"));
+            assertEquals(3000L,pack.getEntry("sub/c.txt").timestamp);
+
+            File out = new File(dir,"out");
+            assertEquals(3,pack.extractTo(out));
+            assertEquals("world",Util.loadFile(new File(out,"sub/c.txt")));
+            assertEquals(1000L,new File(out,"a.txt").lastModified());
+        } finally {
+            pack.close();
+        }
+    }
+
+    /**
+     * Streams the whole pack file, index included, the way the local block replicas are read.
+     */
+    public void testExtractor() throws Exception {
+        PackFile.Writer w = new PackFile.Writer(fs,path);
+        add(w,"a.txt",1000L,"hello");
+        add(w,"sub/b.txt",2000L,"");
+        add(w,"sub/c.txt",3000L,"world");
+        w.close();
+
+        byte[] data = new byte[(int)fs.getFileStatus(path).getLen()];
+        FSDataInputStream in = fs.open(path);
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        File out = new File(dir,"out");
+        PackFile pack = new PackFile(fs,path);
+        try {
+            OutputStream x = pack.extractor(out);
+            for (int i=0; i<data.length; i+=3)
+                x.write(data,i,Math.min(3,data.length-i));
+            x.close();
+        } finally {
+            pack.close();
+        }
+        assertEquals("hello",Util.loadFile(new File(out,"a.txt")));
+        assertEquals("",Util.loadFile(new File(out,"sub/b.txt")));
+        assertEquals("world",Util.loadFile(new File(out,"sub/c.txt")));
+        assertEquals(2000L,new File(out,"sub/b.txt").lastModified());
+    }
+
+    public void testExtractorTruncated() throws Exception {
+        PackFile.Writer w = new PackFile.Writer(fs,path);
+        add(w,"a.txt",1000L,"hello");
+        w.close();
+
+        PackFile pack = new PackFile(fs,path);
+        try {
+            OutputStream x = pack.extractor(new File(dir,"out"));
+            x.write("hel".getBytes("UTF-8"));
+            x.close();
+            fail("accepted a truncated pack file");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            pack.close();
+        }
+    }
+
+    public void testEntryOutsideDirectory() throws Exception {
+        PackFile.Writer w = new PackFile.Writer(fs,path);
+        add(w,"../evil.txt",0,"boo");
+        w.close();
+
+        File out = new File(dir,"out");
+        PackFile pack = new PackFile(fs,path);
+        try {
+            pack.extractTo(out);
+            fail("extracted an entry outside the directory");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            pack.close();
+        }
+        assertFalse(new File(dir,"evil.txt").exists());
+    }
+
+    public void testNotAPackFile() throws Exception {
+        fs.create(path).close();
+        try {
+            new PackFile(fs,path);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void add(PackFile.Writer w, String name, long timestamp, String contents) throws IOException {
+        w.add(name,timestamp,new ByteArrayInputStream(contents.getBytes("UTF-8")));
+    }
+
+    private static String read(PackFile pack, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pack.writeTo(pack.getEntry(name),out);
+        return out.toString("UTF-8");
+    }
+}
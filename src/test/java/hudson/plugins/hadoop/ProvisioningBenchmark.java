@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import org.jvnet.hudson.test.HudsonTestCase;
+
+import java.io.PrintWriter;
+
+/**
+ * Starts Hadoop with 1, 10, and 50 slaves and prints the {@link ProvisioningStats} of each run,
+ * to see how provisioning scales with the number of slaves.
+ * The master boot time in the report is that of the start during the Jenkins startup of each test.
+ *
+ * <p>
+ * Each slave runs its own Hadoop JVM, so this takes a lot of memory and isn't part of the regular test run.
+ * Run it with {@code mvn test -Dtest=ProvisioningBenchmark}.
+ */
+public class ProvisioningBenchmark extends HudsonTestCase {
+    public void test1() throws Exception {
+        run(1);
+    }
+
+    public void test10() throws Exception {
+        run(10);
+    }
+
+    public void test50() throws Exception {
+        run(50);
+    }
+
+    private void run(int slaves) throws Exception {
+        // ItemListenerImpl has already started the name node on the host name it auto-detected,
+        // since there's no root URL in the test. Changing that now would leave slaves talking to the wrong address.
+        PluginImpl p = PluginImpl.get();
+        assertTrue(p.isStarted());
+        String hdfsUrl = p.getHdfsUrl();
+        assertNotNull(hdfsUrl);
+
+        for (int i=0; i<slaves; i++)
+            createSlave();
+
+        // the master is measured, too
+        long timeout = System.currentTimeMillis()+TIMEOUT;
+        while(p.getStats().getNodes().size()<slaves+1) {
+            if(System.currentTimeMillis()>timeout)
+                fail("Only "+p.getStats().getNodes().size()+" nodes out of "+(slaves+1)+" were provisioned");
+            Thread.sleep(1000);
+        }
+
+        PrintWriter w = new PrintWriter(System.out);
+        w.println("# slaves\t"+slaves);
+        w.println("# HDFS\t"+hdfsUrl);
+        p.getStats().writeReport(w);
+        w.flush();
+    }
+
+    private static final long TIMEOUT = 20*60*1000;
+}
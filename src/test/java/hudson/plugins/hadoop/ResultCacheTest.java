@@ -0,0 +1,107 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2004-2009, Sun Microsystems, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package hudson.plugins.hadoop;
+
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Adding to and evicting from {@link ResultCache} on the local file system.
+ */
+public class ResultCacheTest extends LocalFileSystemTestCase {
+    private ResultCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ResultCache.ROOT = dir.getPath()+"/mrcache/";
+        cache = new ResultCache();
+    }
+
+    public void testAddAndAcquire() throws Exception {
+        assertFalse(cache.acquire(fs,"a"));
+        cache.add(fs,"a",result("a.tmp",10),1000);
+        cache.release("a");
+
+        assertFalse(fs.exists(path("a.tmp")));
+        assertTrue(cache.acquire(fs,"a"));
+        cache.release("a");
+        assertEquals(1,cache.getSize());
+        assertEquals(10,cache.getBytes());
+    }
+
+    public void testConcurrentAddKeepsTheFirstResult() throws Exception {
+        cache.add(fs,"a",result("first.tmp",10),1000);
+        cache.add(fs,"a",result("second.tmp",20),1000);
+        cache.release("a");
+        cache.release("a");
+
+        assertFalse(fs.exists(path("second.tmp")));
+        // not moved into the existing directory
+        assertEquals(1,fs.listStatus(new Path(ResultCache.getPath("a"))).length);
+        assertEquals(10,cache.getBytes());
+    }
+
+    public void testInUseIsNotEvicted() throws Exception {
+        cache.add(fs,"a",result("a.tmp",10),15);
+        // "a" is still acquired by the build that added it
+        cache.add(fs,"b",result("b.tmp",10),15);
+        cache.release("b");
+        assertTrue(fs.exists(new Path(ResultCache.getPath("a")));
+        assertEquals(2,cache.getSize());
+
+        cache.release("a");
+        cache.add(fs,"c",result("c.tmp",10),15);
+        cache.release("c");
+        assertFalse(fs.exists(new Path(ResultCache.getPath("a")));
+        assertFalse(cache.acquire(fs,"a"));
+    }
+
+    public void testDeletedBehindOurBack() throws Exception {
+        cache.add(fs,"a",result("a.tmp",10),1000);
+        cache.release("a");
+        fs.delete(new Path(ResultCache.getPath("a")),true);
+
+        assertFalse(cache.acquire(fs,"a"));
+        assertEquals(0,cache.getSize());
+    }
+
+    private Path path(String p) {
+        return new Path(dir.getPath()+"/"+p);
+    }
+
+    /**
+     * Writes a job output of the given size, like a MapReduce job would.
+     */
+    private Path result(String name, int bytes) throws IOException {
+        Path p = path(name);
+        OutputStream out = fs.create(new Path(p,"part-00000"));
+        out.write(new byte[bytes]);
+        out.close();
+        return p;
+    }
+}